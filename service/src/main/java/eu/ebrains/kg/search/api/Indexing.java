@@ -23,7 +23,13 @@
 
 package eu.ebrains.kg.search.api;
 
+import eu.ebrains.kg.search.controller.elasticsearch.ElasticSearchController;
+import eu.ebrains.kg.search.controller.indexing.AdaptiveBulkSizing;
+import eu.ebrains.kg.search.controller.indexing.ChangeFeed;
 import eu.ebrains.kg.search.controller.indexing.IndexingController;
+import eu.ebrains.kg.search.controller.indexing.IndexingScheduler;
+import eu.ebrains.kg.search.controller.search.DocumentCache;
+import eu.ebrains.kg.search.controller.search.SearchResultCache;
 import eu.ebrains.kg.search.controller.sitemap.SitemapController;
 import eu.ebrains.kg.search.model.DataStage;
 import eu.ebrains.kg.search.model.ErrorReportResult;
@@ -36,9 +42,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RequestMapping("/indexing")
 @RestController
@@ -47,9 +58,19 @@ public class Indexing {
     private final IndexingController indexingController;
     private final SitemapController sitemapController;
     private final DOICitationFormatter doiCitationFormatter;
+    private final IndexingScheduler indexingScheduler;
+    private final AdaptiveBulkSizing adaptiveBulkSizing;
+    private final ElasticSearchController elasticSearchController;
+    private final SearchResultCache searchResultCache;
+    private final DocumentCache documentCache;
 
-    public Indexing(IndexingController indexingController, SitemapController sitemapController, DOICitationFormatter doiCitationFormatter) {
+    public Indexing(IndexingController indexingController, SitemapController sitemapController, DOICitationFormatter doiCitationFormatter, IndexingScheduler indexingScheduler, AdaptiveBulkSizing adaptiveBulkSizing, ElasticSearchController elasticSearchController, SearchResultCache searchResultCache, DocumentCache documentCache) {
         this.indexingController = indexingController;
+        this.indexingScheduler = indexingScheduler;
+        this.adaptiveBulkSizing = adaptiveBulkSizing;
+        this.elasticSearchController = elasticSearchController;
+        this.searchResultCache = searchResultCache;
+        this.documentCache = documentCache;
         this.sitemapController = sitemapController;
         this.doiCitationFormatter = doiCitationFormatter;
     }
@@ -64,113 +85,179 @@ public class Indexing {
         this.doiCitationFormatter.evictAll();
     }
 
+    @GetMapping("/stats")
+    public Map<String, Object> getStats(){
+        return Map.of("bulkSizes", adaptiveBulkSizing.getStats(), "skippedUnchangedDocuments", elasticSearchController.getSkippedUnchangedDocuments(), "publicSearchCache", searchResultCache.getStats(), "documentCache", documentCache.getStats());
+    }
+
     @PostMapping
     public ResponseEntity<ErrorReportResult> fullReplacement(@RequestParam("databaseScope") DataStage dataStage) {
         try {
+            //The identifiers index is shared by all types - it therefore has to be recreated before the types are indexed in parallel
+            //(and before its identifiers are loaded for resolving the references).
             indexingController.recreateIdentifiersIndex(dataStage);
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease()).map(m -> {
-                //In full replacement mode, we first create a temporary index
-                indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
-                //Which we're then going to populate.
-                final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, true);
-                //Eventually, we're reindexing the temporary index to the real one
-                indexingController.reindexTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
-                return handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            if(dataStage==DataStage.RELEASED) {
-                sitemapController.updateSitemapCache();
-            }
-            return handleErrorReportResult(errorsByTarget);
         } catch (WebClientResponseException e) {
             logger.info("Unsuccessful indexing", e);
             return ResponseEntity.status(e.getStatusCode()).build();
         }
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = indexingScheduler.runForAll(TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease()).collect(Collectors.toList()), m -> {
+                    //In full replacement mode, we first create a temporary index
+                    indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
+                    //Which we're then going to populate.
+                    final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, true);
+                    //Eventually, we're promoting the temporary index to the real one
+                    indexingController.promoteTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
+                    return handleErrorReportResultByTargetType(m, errorsBySource);
+                });
+                if(dataStage==DataStage.RELEASED) {
+                    updateSitemap();
+                }
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
+            }
+        });
     }
 
     @PostMapping("categories/{category}")
     public ResponseEntity<ErrorReportResult> fullReplacementByType(@RequestParam("databaseScope") DataStage dataStage, @PathVariable("category") String category) {
-        try {
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(m -> m.getTargetClass().getSimpleName().equals(category)).map(m -> {
-                //In full replacement mode, we first create a temporary index
-                indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
-                //Which we're then going to populate.
-                final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource =  indexingController.populateIndex(m, dataStage, true);
-                //Eventually, we're reindexing the temporary index to the real one
-                indexingController.reindexTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
-                return handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            if(dataStage==DataStage.RELEASED) {
-                sitemapController.updateSitemapCache();
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = indexingScheduler.runForAll(TranslatorModel.MODELS.stream().filter(m -> m.getTargetClass().getSimpleName().equals(category)).collect(Collectors.toList()), m -> {
+                    //In full replacement mode, we first create a temporary index
+                    indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
+                    //Which we're then going to populate.
+                    final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource =  indexingController.populateIndex(m, dataStage, true);
+                    //Eventually, we're promoting the temporary index to the real one
+                    indexingController.promoteTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
+                    return handleErrorReportResultByTargetType(m, errorsBySource);
+                });
+                if(dataStage==DataStage.RELEASED) {
+                    updateSitemap();
+                }
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
             }
-            return handleErrorReportResult(errorsByTarget);
-        } catch (WebClientResponseException e) {
-            logger.info("Unsuccessful indexing", e);
-            return ResponseEntity.status(e.getStatusCode()).build();
-        }
+        });
     }
 
     @PostMapping("/autorelease")
     public ResponseEntity<ErrorReportResult> fullReplacementAutoRelease(@RequestParam("databaseScope") DataStage dataStage) {
-        try {
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(TranslatorModel::isAutoRelease).map(m -> {
-                indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
-                List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, true);
-                indexingController.reindexTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
-                return handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            return handleErrorReportResult(errorsByTarget);
-        } catch (WebClientResponseException e) {
-            logger.info("Unsuccessful autorelease indexing", e);
-            return ResponseEntity.status(e.getStatusCode()).build();
-        }
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = indexingScheduler.runForAll(TranslatorModel.MODELS.stream().filter(TranslatorModel::isAutoRelease).collect(Collectors.toList()), m -> {
+                    indexingController.recreateIndex(dataStage, m.getTargetClass(), m.isAutoRelease(), true);
+                    List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, true);
+                    indexingController.promoteTemporaryToReal(dataStage, m.getTargetClass(), m.isAutoRelease());
+                    return handleErrorReportResultByTargetType(m, errorsBySource);
+                });
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful autorelease indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
+            }
+        });
     }
 
     @PutMapping
     public ResponseEntity<ErrorReportResult> incrementalUpdate(@RequestParam("databaseScope") DataStage dataStage) {
-        try {
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease()).map(m -> {
-                final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, false);
-                return handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            if(dataStage==DataStage.RELEASED) {
-                sitemapController.updateSitemapCache();
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = updateByChanges(TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease()).collect(Collectors.toList()), dataStage);
+                if(dataStage==DataStage.RELEASED) {
+                    updateSitemap();
+                }
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful incremental indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
             }
-            return handleErrorReportResult(errorsByTarget);
-        } catch (WebClientResponseException e) {
-            logger.info("Unsuccessful incremental indexing", e);
-            return ResponseEntity.status(e.getStatusCode()).build();
-        }
+        });
     }
 
     @PutMapping("categories/{category}")
     public ResponseEntity<ErrorReportResult> incrementalUpdateByType(@RequestParam("databaseScope") DataStage dataStage, @PathVariable("category") String category) {
-        try {
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease() && m.getTargetClass().getSimpleName().equals(category)).map(m -> {
-                final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource =  indexingController.populateIndex(m, dataStage, false);
-                return handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            if(dataStage == DataStage.RELEASED) {
-                sitemapController.updateSitemapCache();
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = updateByChanges(TranslatorModel.MODELS.stream().filter(m -> !m.isAutoRelease() && m.getTargetClass().getSimpleName().equals(category)).collect(Collectors.toList()), dataStage);
+                if(dataStage == DataStage.RELEASED) {
+                    updateSitemap();
+                }
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful incremental indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
             }
-            return handleErrorReportResult(errorsByTarget);
-        } catch (WebClientResponseException e) {
-            logger.info("Unsuccessful incremental indexing", e);
-            return ResponseEntity.status(e.getStatusCode()).build();
-        }
+        });
     }
 
     @PutMapping("/autorelease")
     public ResponseEntity<ErrorReportResult> incrementalUpdateAutoRelease(@RequestParam("databaseScope") DataStage dataStage) {
+        return withReferenceCache(dataStage, () -> {
+            try {
+                final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = updateByChanges(TranslatorModel.MODELS.stream().filter(TranslatorModel::isAutoRelease).collect(Collectors.toList()), dataStage);
+                return handleErrorReportResult(errorsByTarget);
+            } catch (WebClientResponseException e) {
+                logger.info("Unsuccessful incremental autorelease indexing", e);
+                return ResponseEntity.status(e.getStatusCode()).build();
+            }
+        });
+    }
+
+    /**
+     * Updates the given types based on their changes since the last run - types without a change feed are fully updated.
+     */
+    private List<ErrorReportResult.ErrorReportResultByTargetType> updateByChanges(List<TranslatorModel<?, ?, ?, ?>> models, DataStage dataStage) {
+        final Map<Class<?>, ChangeFeed.Changes> changesByType = new ConcurrentHashMap<>();
+        indexingScheduler.runForAll(models, m -> {
+            final ChangeFeed.Changes changes = indexingController.detectChanges(m, dataStage);
+            if (changes != null) {
+                changesByType.put(m.getTargetClass(), changes);
+            }
+            return null;
+        });
+        final Set<String> changedIds = changesByType.values().stream().flatMap(c -> Stream.concat(c.getChangedIds().stream(), c.getRemovedIds().stream())).collect(Collectors.toSet());
+        return indexingScheduler.runForAll(models, m -> {
+            final ChangeFeed.Changes changes = changesByType.get(m.getTargetClass());
+            final List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = changes != null ? indexingController.populateIndexByChanges(m, dataStage, changes, changedIds) : indexingController.populateIndex(m, dataStage, false);
+            return handleErrorReportResultByTargetType(m, errorsBySource);
+        });
+    }
+
+    private void updateSitemap() {
+        try {
+            sitemapController.updateSitemap();
+        } catch (IOException e) {
+            //The sitemap is regenerated on the next indexing run - we therefore don't fail the indexing
+            logger.error("Was not able to update the sitemap", e);
+        }
+    }
+
+    /**
+     * Keeps the identifiers of the stage in memory while indexing, so references are resolved without querying elasticsearch.
+     * Since the indices have been changed afterwards, the cached documents and public search results are invalidated too.
+     */
+    private ResponseEntity<ErrorReportResult> withReferenceCache(DataStage dataStage, Supplier<ResponseEntity<ErrorReportResult>> indexing) {
         try {
-            final List<ErrorReportResult.ErrorReportResultByTargetType> errorsByTarget = TranslatorModel.MODELS.stream().filter(TranslatorModel::isAutoRelease).map(m -> {
-                List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource = indexingController.populateIndex(m, dataStage, false);
-                return  handleErrorReportResultByTargetType(m, errorsBySource);
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            return handleErrorReportResult(errorsByTarget);
+            indexingController.openReferenceCache(dataStage);
         } catch (WebClientResponseException e) {
-            logger.info("Unsuccessful incremental autorelease indexing", e);
+            logger.info("Unable to load the identifiers for resolving the references", e);
             return ResponseEntity.status(e.getStatusCode()).build();
         }
+        try {
+            return indexing.get();
+        } finally {
+            indexingController.closeReferenceCache(dataStage);
+            documentCache.invalidate(dataStage);
+            if (dataStage == DataStage.RELEASED) {
+                searchResultCache.invalidate();
+            }
+        }
     }
 
     private ErrorReportResult.ErrorReportResultByTargetType handleErrorReportResultByTargetType(TranslatorModel<?, ?, ?, ?> m, List<ErrorReportResult.ErrorReportResultBySourceType> errorsBySource) {
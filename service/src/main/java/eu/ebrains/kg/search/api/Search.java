@@ -24,18 +24,18 @@
 package eu.ebrains.kg.search.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import eu.ebrains.kg.search.controller.elasticsearch.ElasticSearchController;
 import eu.ebrains.kg.search.controller.kg.KGv2;
 import eu.ebrains.kg.search.controller.kg.KGv3;
 import eu.ebrains.kg.search.controller.labels.LabelsController;
+import eu.ebrains.kg.search.controller.search.DocumentCache;
 import eu.ebrains.kg.search.controller.search.SearchController;
 import eu.ebrains.kg.search.controller.translators.TranslationController;
 import eu.ebrains.kg.search.model.DataStage;
 import eu.ebrains.kg.search.model.TranslatorModel;
 import eu.ebrains.kg.search.model.target.elasticsearch.TargetInstance;
 import eu.ebrains.kg.search.services.DOICitationFormatter;
-import eu.ebrains.kg.search.services.ESServiceClient;
 import eu.ebrains.kg.search.services.KGV2ServiceClient;
-import eu.ebrains.kg.search.utils.ESHelper;
 import eu.ebrains.kg.search.utils.MetaModelUtils;
 import eu.ebrains.kg.search.utils.TranslationException;
 import org.apache.commons.lang3.StringUtils;
@@ -46,6 +46,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.security.Principal;
 import java.util.*;
@@ -55,27 +56,29 @@ import java.util.*;
 @SuppressWarnings("java:S1452") // we keep the generics intentionally
 public class Search {
     private final KGV2ServiceClient KGV2ServiceClient;
-    private final ESServiceClient esServiceClient;
     private final LabelsController labelsController;
     private final SearchController searchController;
     private final TranslationController translationController;
     private final KGv2 kgV2;
     private final KGv3 kgV3;
     private final DOICitationFormatter doiCitationFormatter;
+    private final ElasticSearchController elasticSearchController;
+    private final DocumentCache documentCache;
     private final static String SOURCE = "_source";
 
     @Value("${eu.ebrains.kg.commit}")
     String commit;
 
-    public Search(KGV2ServiceClient KGV2ServiceClient, ESServiceClient esServiceClient, LabelsController labelsController, SearchController searchController, TranslationController translationController, KGv2 kgV2, KGv3 kgV3, DOICitationFormatter doiCitationFormatter) throws JsonProcessingException {
+    public Search(KGV2ServiceClient KGV2ServiceClient, LabelsController labelsController, SearchController searchController, TranslationController translationController, KGv2 kgV2, KGv3 kgV3, DOICitationFormatter doiCitationFormatter, ElasticSearchController elasticSearchController, DocumentCache documentCache) throws JsonProcessingException {
         this.KGV2ServiceClient = KGV2ServiceClient;
-        this.esServiceClient = esServiceClient;
         this.labelsController = labelsController;
         this.searchController = searchController;
         this.translationController = translationController;
         this.kgV3 = kgV3;
         this.kgV2 = kgV2;
         this.doiCitationFormatter = doiCitationFormatter;
+        this.elasticSearchController = elasticSearchController;
+        this.documentCache = documentCache;
     }
 
     @GetMapping("/auth/endpoint")
@@ -170,9 +173,8 @@ public class Search {
 
     @GetMapping("/groups/public/documents/{id}")
     public ResponseEntity<?> getDocumentForPublic(@PathVariable("id") String id) { 
-        String index = ESHelper.getIndexesForDocument(DataStage.RELEASED);
         try {
-            return ResponseEntity.ok(esServiceClient.getDocument(index, id));
+            return getDocument(DataStage.RELEASED, id);
         } catch (WebClientResponseException e) {
             return ResponseEntity.status(e.getStatusCode()).build();
         }
@@ -304,9 +306,8 @@ public class Search {
 
     @GetMapping("/groups/public/documents/{type}/{id}")
     public ResponseEntity<?> getDocumentForPublic(@PathVariable("type") String type, @PathVariable("id") String id) { 
-        String index = ESHelper.getIndexesForDocument(DataStage.RELEASED);
         try {
-            return ResponseEntity.ok(esServiceClient.getDocument(index, String.format("%s/%s", type, id)));
+            return getDocument(DataStage.RELEASED, String.format("%s/%s", type, id));
         } catch (WebClientResponseException e) {
             return ResponseEntity.status(e.getStatusCode()).build();
         }
@@ -316,8 +317,7 @@ public class Search {
     public ResponseEntity<?> getDocumentForCurated(@PathVariable("id") String id, Principal principal) { 
         if (searchController.isInInProgressRole(principal)) {
             try {
-                String index = ESHelper.getIndexesForDocument(DataStage.IN_PROGRESS);
-                return ResponseEntity.ok(esServiceClient.getDocument(index, id));
+                return getDocument(DataStage.IN_PROGRESS, id);
             } catch (WebClientResponseException e) {
                 return ResponseEntity.status(e.getStatusCode()).build();
             }
@@ -330,8 +330,7 @@ public class Search {
     public ResponseEntity<?> getDocumentForCurated(@PathVariable("type") String type, @PathVariable("id") String id, Principal principal) { 
         if (searchController.isInInProgressRole(principal)) {
             try {
-                String index = ESHelper.getIndexesForDocument(DataStage.IN_PROGRESS);
-                return ResponseEntity.ok(esServiceClient.getDocument(index, String.format("%s/%s", type, id)));
+                return getDocument(DataStage.IN_PROGRESS, String.format("%s/%s", type, id));
             } catch (WebClientResponseException e) {
                 return ResponseEntity.status(e.getStatusCode()).build();
             }
@@ -340,25 +339,28 @@ public class Search {
         }
     }
 
+    private ResponseEntity<?> getDocument(DataStage dataStage, String id) {
+        final byte[] document = documentCache.getDocument(dataStage, id, () -> elasticSearchController.getDocument(dataStage, id));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(document);
+    }
+
     @PostMapping("/groups/public/search")
-    public ResponseEntity<?> searchPublic(@RequestBody String payload) throws JsonProcessingException { 
-        try {
-            return ResponseEntity.ok(searchController.getResult(payload, DataStage.RELEASED));
-        } catch (WebClientResponseException e) {
-            return ResponseEntity.status(e.getStatusCode()).build();
-        }
+    public Mono<ResponseEntity<?>> searchPublic(@RequestBody String payload) {
+        return search(payload, DataStage.RELEASED);
     }
 
     @PostMapping("/groups/curated/search")
-    public ResponseEntity<?> searchCurated(@RequestBody String payload, Principal principal) throws JsonProcessingException { 
+    public Mono<ResponseEntity<?>> searchCurated(@RequestBody String payload, Principal principal) {
         if (searchController.isInInProgressRole(principal)) {
-            try {
-                return ResponseEntity.ok(searchController.getResult(payload, DataStage.IN_PROGRESS));
-            } catch (WebClientResponseException e) {
-                return ResponseEntity.status(e.getStatusCode()).build();
-            }
+            return search(payload, DataStage.IN_PROGRESS);
         } else {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
         }
     }
+
+    private Mono<ResponseEntity<?>> search(String payload, DataStage dataStage) {
+        return searchController.getResult(payload, dataStage)
+                .<ResponseEntity<?>>map(result -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(result))
+                .onErrorResume(WebClientResponseException.class, e -> Mono.just(ResponseEntity.status(e.getStatusCode()).build()));
+    }
 }
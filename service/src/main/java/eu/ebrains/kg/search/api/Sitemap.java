@@ -25,15 +25,19 @@ package eu.ebrains.kg.search.api;
 
 
 import eu.ebrains.kg.search.controller.sitemap.SitemapController;
-import eu.ebrains.kg.search.model.SitemapXML;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 @RequestMapping(value="/sitemap", produces = MediaType.APPLICATION_XML_VALUE)
 @RestController
 public class Sitemap {
@@ -45,16 +49,29 @@ public class Sitemap {
 
     @GetMapping
     @SuppressWarnings("java:S1452") // we keep the generics intentionally
-    public ResponseEntity<?> generateSitemap() { 
+    public ResponseEntity<?> generateSitemap() throws IOException {
         try {
-            SitemapXML sitemapXML = sitemapController.getSitemap();
-            if(sitemapXML == null) {
+            Path sitemapIndex = sitemapController.getSitemapIndex();
+            if(sitemapIndex == null) {
                 return  ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
             }
-            return ResponseEntity.ok(sitemapXML);
+            return ResponseEntity.ok(new FileSystemResource(sitemapIndex));
         } catch (WebClientResponseException e) {
             return ResponseEntity.status(e.getStatusCode()).build();
         }
     }
 
+    @GetMapping(value = "/{shard}.xml.gz", produces = "application/gzip")
+    @SuppressWarnings("java:S1452") // we keep the generics intentionally
+    public ResponseEntity<?> getSitemapShard(@PathVariable("shard") String shard) {
+        if (!shard.matches("\\d{1,6}")) {
+            return ResponseEntity.notFound().build();
+        }
+        Path file = sitemapController.getSitemapShard(Integer.parseInt(shard));
+        if (file == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(new FileSystemResource(file));
+    }
+
 }
@@ -76,17 +76,7 @@ public class GracefulDeserializationProblemHandler extends DeserializationProble
             final ResultsOfKG<?> resultsOfKG = (ResultsOfKG<?>) result;
             final List<?> data = resultsOfKG.getData();
             for (Integer index : errorMap.keySet()) {
-                final Object instance = data.get(index);
-                String identifier;
-                if(instance instanceof SourceInstanceV1andV2) {
-                    identifier = ((SourceInstanceV1andV2) instance).getIdentifier();
-                }
-                else if (instance instanceof SourceInstanceV3){
-                    identifier = IdUtils.getUUID(((SourceInstanceV3)instance).getId());
-                }
-                else{
-                    throw new RuntimeException(String.format("Unexpected type in error handling: %s", instance.getClass().getName()));
-                }
+                final String identifier = getIdentifier(data.get(index));
                 if(identifier!=null) {
                     if (resultsOfKG.getErrors() == null) {
                         resultsOfKG.setErrors(new ErrorReport());
@@ -97,5 +87,34 @@ public class GracefulDeserializationProblemHandler extends DeserializationProble
         }
     }
 
+    /**
+     * Attributes the parsing errors recorded for the instance at the given index of the data array - this is used when the
+     * instances are streamed one by one instead of parsing the whole page at once.
+     */
+    public static void parsingErrorHandler(Object instance, int index, ErrorReport errors){
+        final Map<Integer, List<String>> errorMap = GracefulDeserializationProblemHandler.ERROR_REPORTING_THREAD_LOCAL.get();
+        if(errorMap!=null){
+            final List<String> instanceErrors = errorMap.remove(index);
+            if(instanceErrors!=null && instance!=null){
+                final String identifier = getIdentifier(instance);
+                if(identifier!=null){
+                    errors.put(identifier, instanceErrors);
+                }
+            }
+        }
+    }
+
+    private static String getIdentifier(Object instance){
+        if(instance instanceof SourceInstanceV1andV2) {
+            return ((SourceInstanceV1andV2) instance).getIdentifier();
+        }
+        else if (instance instanceof SourceInstanceV3){
+            return IdUtils.getUUID(((SourceInstanceV3)instance).getId());
+        }
+        else{
+            throw new RuntimeException(String.format("Unexpected type in error handling: %s", instance.getClass().getName()));
+        }
+    }
+
 
 }
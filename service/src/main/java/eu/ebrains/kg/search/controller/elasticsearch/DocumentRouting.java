@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.elasticsearch;
+
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.target.elasticsearch.TargetInstance;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Remembers in which index (and with which _id) the document of an identifier is stored, so documents can be read
+ * with a direct get instead of a search across all indices of a stage. The routes are registered when documents are
+ * written or found by a search - entries which turned out to be outdated are simply replaced on the next lookup.
+ */
+@Component
+public class DocumentRouting {
+
+    @Getter
+    public static class Route {
+        private final String index;
+        private final String id;
+
+        private Route(String index, String id) {
+            this.index = index;
+            this.id = id;
+        }
+    }
+
+    private final Map<DataStage, Map<String, Route>> routesByStage = new EnumMap<>(DataStage.class);
+
+    public DocumentRouting(@Value("${es.documentRouting.size:500000}") int maxRoutesPerStage) {
+        for (DataStage stage : DataStage.values()) {
+            routesByStage.put(stage, Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+                    return size() > maxRoutesPerStage;
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return the index and the _id of the document of the given identifier or null if it is unknown
+     */
+    public Route getRoute(DataStage stage, String identifier) {
+        return routesByStage.get(stage).get(identifier);
+    }
+
+    public void register(DataStage stage, String identifier, String index, String id) {
+        routesByStage.get(stage).put(identifier, new Route(index.intern(), id));
+    }
+
+    public void register(DataStage stage, String index, List<? extends TargetInstance> instances) {
+        final Map<String, Route> routes = routesByStage.get(stage);
+        final String sharedIndex = index.intern();
+        for (TargetInstance instance : instances) {
+            final Route route = new Route(sharedIndex, instance.getId());
+            routes.put(instance.getId(), route);
+            if (instance.getIdentifier() != null) {
+                instance.getIdentifier().forEach(identifier -> routes.put(identifier, route));
+            }
+        }
+    }
+
+    public void remove(DataStage stage, String identifier) {
+        routesByStage.get(stage).remove(identifier);
+    }
+}
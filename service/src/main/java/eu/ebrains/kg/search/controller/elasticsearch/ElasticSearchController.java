@@ -25,29 +25,52 @@ package eu.ebrains.kg.search.controller.elasticsearch;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.ebrains.kg.search.controller.indexing.AdaptiveBulkSizing;
+import eu.ebrains.kg.search.controller.mapping.MappingController;
 import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.ErrorReport;
+import eu.ebrains.kg.search.model.target.elasticsearch.ElasticSearchDocument;
 import eu.ebrains.kg.search.model.target.elasticsearch.TargetInstance;
 import eu.ebrains.kg.search.services.ESServiceClient;
 import eu.ebrains.kg.search.utils.ESHelper;
 import eu.ebrains.kg.search.utils.MetaModelUtils;
+import eu.ebrains.kg.search.utils.SortedIdSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 public class ElasticSearchController {
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ESServiceClient esServiceClient;
+    private final AdaptiveBulkSizing adaptiveBulkSizing;
+    private final DocumentRouting documentRouting;
+    private final boolean skipUnchangedDocuments;
+    private final Map<String, LongAdder> skippedUnchangedDocuments = new ConcurrentHashMap<>();
     private final int ESOperationsMaxCharPayload = 1000000;
+    private static final String IDENTIFIER = "identifier";
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    public ElasticSearchController(ESServiceClient esServiceClient) {
+    public ElasticSearchController(ESServiceClient esServiceClient, AdaptiveBulkSizing adaptiveBulkSizing, DocumentRouting documentRouting, @Value("${indexing.skipUnchangedDocuments:true}") boolean skipUnchangedDocuments) {
         this.esServiceClient = esServiceClient;
+        this.documentRouting = documentRouting;
+        this.adaptiveBulkSizing = adaptiveBulkSizing;
+        this.skipUnchangedDocuments = skipUnchangedDocuments;
     }
 
 
@@ -55,26 +78,72 @@ public class ElasticSearchController {
         return esServiceClient.existingDocuments(ESHelper.getIndexesForDocument(stage), references);
     }
 
-    public void reindexTemporaryToRealIndex(Class<?> type, DataStage dataStage, boolean autorelease){
-        String source =  autorelease ? ESHelper.getAutoReleasedIndex(dataStage, type, true) : ESHelper.getSearchableIndex(dataStage, type, true);
-        String target = autorelease ? ESHelper.getAutoReleasedIndex(dataStage, type, false) :ESHelper.getSearchableIndex(dataStage, type, false);
-        esServiceClient.reindex(source, target);
-        //We remove the temporary index after it has been reindexed.
-        esServiceClient.deleteIndex(source);
+    public Set<String> getAllIdentifiers(DataStage stage){
+        return esServiceClient.getAllIdentifiers(ESHelper.getIndexesForDocument(stage));
     }
 
-    public void recreateSearchIndex(Map<String, Object> mapping, Class<?> type, DataStage dataStage, boolean temporary) {
-        String index = ESHelper.getSearchableIndex(dataStage, type, temporary);
-        logger.info(String.format("Creating index Was %s for %s", index, MetaModelUtils.getNameForClass(type)));
-        try {
-            esServiceClient.deleteIndex(index);
-        } catch (WebClientResponseException e) {
-            if(e.getStatusCode() != HttpStatus.NOT_FOUND) {
-                throw  e;
+    public Set<String> getDocumentIdsReferencing(List<String> references, Class<?> type, DataStage dataStage, boolean autorelease) {
+        if (references.isEmpty()) {
+            return new HashSet<>();
+        }
+        if (autorelease) {
+            return esServiceClient.getDocumentIdsReferencing(ESHelper.getAutoReleasedIndex(dataStage, type, false), null, references);
+        }
+        //The non-searchable documents of the type are part of the identifiers index shared by all types
+        final Set<String> result = esServiceClient.getDocumentIdsReferencing(ESHelper.getSearchableIndex(dataStage, type, false), null, references);
+        result.addAll(esServiceClient.getDocumentIdsReferencing(ESHelper.getIdentifierIndex(dataStage), type, references));
+        return result;
+    }
+
+    /**
+     * @return the ids of the documents of the type which are not part of the given ids (anymore)
+     */
+    public Set<String> getDeprecatedDocumentIds(Class<?> type, DataStage dataStage, Set<String> existingIds, boolean autorelease) {
+        final Set<String> result = new HashSet<>();
+        final Consumer<String> collector = id -> {
+            if (!existingIds.contains(id)) {
+                result.add(id);
             }
+        };
+        if (autorelease) {
+            esServiceClient.forEachDocumentId(ESHelper.getAutoReleasedIndex(dataStage, type, false), type, collector);
+        } else {
+            esServiceClient.forEachDocumentId(ESHelper.getSearchableIndex(dataStage, type, false), type, collector);
+            esServiceClient.forEachDocumentId(ESHelper.getIdentifierIndex(dataStage), type, collector);
         }
-        esServiceClient.createIndex(index, mapping);
-        logger.info(String.format("Successfully created index %s for %s", index, MetaModelUtils.getNameForClass(type)));
+        return result;
+    }
+
+    public Map<String, Object> getIndexingState(String id) {
+        return esServiceClient.getSource(ESHelper.getIndexingStateIndex(), id);
+    }
+
+    public void updateIndexingState(String id, Map<String, Object> state) {
+        esServiceClient.putSource(ESHelper.getIndexingStateIndex(), id, state);
+    }
+
+    /**
+     * Promotes the temporary index generation by atomically swapping the alias of the real index to it. The
+     * previous generations are removed afterwards.
+     */
+    public void promoteTemporaryIndex(Class<?> type, DataStage dataStage, boolean autorelease) {
+        String temporaryAlias = autorelease ? ESHelper.getAutoReleasedIndex(dataStage, type, true) : ESHelper.getSearchableIndex(dataStage, type, true);
+        String alias = autorelease ? ESHelper.getAutoReleasedIndex(dataStage, type, false) : ESHelper.getSearchableIndex(dataStage, type, false);
+        Set<String> generations = esServiceClient.getAliases(temporaryAlias).keySet();
+        if (generations.size() != 1) {
+            throw new IllegalStateException(String.format("Can not promote %s - it points to %d indices", temporaryAlias, generations.size()));
+        }
+        String generation = generations.iterator().next();
+        List<Map<String, Map<String, String>>> actions = new ArrayList<>(getAliasRemovals(alias));
+        actions.add(Map.of("remove", Map.of("index", generation, "alias", temporaryAlias)));
+        actions.add(Map.of("add", Map.of("index", generation, "alias", alias)));
+        esServiceClient.updateAliases(actions);
+        logger.info(String.format("Successfully promoted index %s to %s for %s", generation, alias, MetaModelUtils.getNameForClass(type)));
+        removeObsoleteGenerations(alias);
+    }
+
+    public void recreateSearchIndex(Map<String, Object> mapping, Class<?> type, DataStage dataStage, boolean temporary) {
+        recreateIndex(ESHelper.getSearchableIndex(dataStage, type, false), ESHelper.getSearchableIndex(dataStage, type, true), mapping, type, temporary);
     }
 
     public void recreateIdentifiersIndex(Map<String, Object> mapping, DataStage dataStage) {
@@ -92,97 +161,275 @@ public class ElasticSearchController {
     }
 
     public void recreateAutoReleasedIndex(DataStage stage, Map<String, Object> mapping, Class<?> type, boolean temporary) {
-        String index = ESHelper.getAutoReleasedIndex(stage, type, temporary);
-        logger.info(String.format("Creating index %s for %s", index, MetaModelUtils.getNameForClass(type)));
-        try {
-            esServiceClient.deleteIndex(index);
-        } catch (WebClientResponseException e) {
-            if(e.getStatusCode() != HttpStatus.NOT_FOUND) {
-                throw  e;
-            }
-        }
+        recreateIndex(ESHelper.getAutoReleasedIndex(stage, type, false), ESHelper.getAutoReleasedIndex(stage, type, true), mapping, type, temporary);
+    }
+
+    /**
+     * Creates a new generation of the index and points the alias (or the temporary alias) to it. Generations which
+     * are not referenced by any alias anymore (e.g. by an interrupted full replacement) are removed.
+     */
+    private void recreateIndex(String alias, String temporaryAlias, Map<String, Object> mapping, Class<?> type, boolean temporary) {
+        String index = ESHelper.getIndexGeneration(alias, System.currentTimeMillis());
+        String target = temporary ? temporaryAlias : alias;
+        logger.info(String.format("Creating index %s as %s for %s", index, target, MetaModelUtils.getNameForClass(type)));
         esServiceClient.createIndex(index, mapping);
-        logger.info(String.format("Successfully created index %s for %s", index, MetaModelUtils.getNameForClass(type)));
+        List<Map<String, Map<String, String>>> actions = new ArrayList<>(getAliasRemovals(target));
+        actions.add(Map.of("add", Map.of("index", index, "alias", target)));
+        esServiceClient.updateAliases(actions);
+        removeObsoleteGenerations(alias);
+        logger.info(String.format("Successfully created index %s as %s for %s", index, target, MetaModelUtils.getNameForClass(type)));
     }
 
-    private List<StringBuilder> getInsertOperations(List<? extends TargetInstance> instances) {
+    /**
+     * @return the actions detaching the alias from its current indices - an index created before the indices were
+     * aliased carries the name of the alias itself and is therefore removed within the same atomic request.
+     */
+    private List<Map<String, Map<String, String>>> getAliasRemovals(String alias) {
+        return esServiceClient.getAliases(alias).keySet().stream()
+                .map(index -> index.equals(alias) ? Map.of("remove_index", Map.of("index", index)) : Map.of("remove", Map.of("index", index, "alias", alias)))
+                .collect(Collectors.toList());
+    }
+
+    private void removeObsoleteGenerations(String alias) {
+        esServiceClient.getAliases(ESHelper.getIndexGenerations(alias)).forEach((index, aliases) -> {
+            if (aliases.isEmpty() && ESHelper.isIndexGeneration(index, alias)) {
+                logger.info(String.format("Removing obsolete index %s", index));
+                try {
+                    esServiceClient.deleteIndex(index);
+                } catch (WebClientResponseException e) {
+                    if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+                        throw e;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates the index operations for the instances. If unchanged documents are skipped, a fingerprint of every document
+     * is stored along with it (as doc value only - it is excluded from the source) - documents whose fingerprint is the
+     * same as the one of the indexed document are omitted.
+     */
+    private List<StringBuilder> getInsertOperations(String index, Class<?> type, List<? extends TargetInstance> instances, int maxCharPayload, boolean compareWithExisting) {
         List<StringBuilder> result = new ArrayList<>();
         if (CollectionUtils.isEmpty(instances)) {
             return result;
         }
+        final Map<String, String> existingFingerprints = skipUnchangedDocuments && compareWithExisting ? esServiceClient.getDocValueOfDocuments(index, instances.stream().map(TargetInstance::getId).filter(Objects::nonNull).distinct().collect(Collectors.toList()), MappingController.FINGERPRINT) : Collections.emptyMap();
+        int skipped = 0;
         result.add(new StringBuilder());
-        instances.forEach(instance -> {
-            StringBuilder operations = result.get(result.size() - 1);
-            if (operations.length() > ESOperationsMaxCharPayload) {
-                operations = new StringBuilder();
-                result.add(operations);
-            }
-            operations.append(String.format("{ \"index\" : { \"_id\" : \"%s\" } } \n", instance.getId()));
+        for (TargetInstance instance : instances) {
+            final String document;
             try {
-                operations.append(objectMapper.writeValueAsString(instance)).append("\n");
+                if (skipUnchangedDocuments) {
+                    final ObjectNode tree = objectMapper.valueToTree(instance);
+                    //The fingerprint is calculated on the document without it - so it is the same for an unchanged document
+                    final String fingerprint = getFingerprint(objectMapper.writeValueAsString(tree));
+                    if (fingerprint.equals(existingFingerprints.get(instance.getId()))) {
+                        skipped++;
+                        continue;
+                    }
+                    tree.put(MappingController.FINGERPRINT, fingerprint);
+                    document = objectMapper.writeValueAsString(tree);
+                } else {
+                    document = objectMapper.writeValueAsString(instance);
+                }
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
-        });
-        return result;
-    }
-
-    private List<StringBuilder> getDeleteOperations(String index, Class<?> type, Set<String> idsToKeep) {
-        List<StringBuilder> result = new ArrayList<>();
-        result.add(new StringBuilder());
-        List<String> ids = esServiceClient.getDocumentIds(index, type);
-        ids.forEach(id -> {
             StringBuilder operations = result.get(result.size() - 1);
-            if (operations.length() > ESOperationsMaxCharPayload) {
+            if (operations.length() > maxCharPayload) {
                 operations = new StringBuilder();
                 result.add(operations);
             }
-            if(!idsToKeep.contains(id)) {
-                operations.append(String.format("{ \"delete\" : { \"_id\" : \"%s\" } } \n", id));
-            }
-        });
+            operations.append(String.format("{ \"index\" : { \"_id\" : \"%s\" } } \n", instance.getId()));
+            operations.append(document).append("\n");
+        }
         if (result.get(result.size() - 1).length() == 0) {
             result.remove(result.size() - 1);
-        };
+        }
+        if (skipped > 0) {
+            skippedUnchangedDocuments.computeIfAbsent(type.getSimpleName(), k -> new LongAdder()).add(skipped);
+            logger.info(String.format("Skipped %d unchanged documents of %s in index %s", skipped, type.getSimpleName(), index));
+        }
         return result;
     }
 
-    private void updateIndex(String index, List<? extends TargetInstance> instances) {
-        List<StringBuilder> operationsList = getInsertOperations(instances);
-        if (!CollectionUtils.isEmpty(operationsList)) {
-            esServiceClient.updateIndex(index, operationsList);
+    private static String getFingerprint(String document) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(document.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
-    private void removeDeprecatedDocuments(String index,  Class<?> type, Set<String> idsToKeep) {
-        List<StringBuilder> operationsList = getDeleteOperations(index, type, idsToKeep);
-        if (!CollectionUtils.isEmpty(operationsList)) {
-            esServiceClient.updateIndex(index, operationsList);
+    /**
+     * @return the number of documents which haven't been rewritten since they were unchanged - by type
+     */
+    public Map<String, Long> getSkippedUnchangedDocuments() {
+        Map<String, Long> result = new TreeMap<>();
+        skippedUnchangedDocuments.forEach((k, v) -> result.put(k, v.sum()));
+        return result;
+    }
+
+    private ErrorReport updateIndex(String index, Class<?> type, List<? extends TargetInstance> instances, boolean temporary) {
+        //A temporary index has just been created - there is nothing to compare with.
+        List<StringBuilder> operationsList = getInsertOperations(index, type, instances, adaptiveBulkSizing.getESPayload(type), !temporary);
+        if (CollectionUtils.isEmpty(operationsList)) {
+            return new ErrorReport();
         }
+        logger.info(String.format("Updating index %s with %s bulk operations", index, operationsList.size()));
+        final ErrorReport errors = esServiceClient.updateIndex(index, operationsList, (durationInMs, rejected) -> adaptiveBulkSizing.onBulkWritten(type, durationInMs, rejected));
+        logger.info(String.format("Done updating index %s", index));
+        return errors;
     }
 
-    public void updateSearchIndex(List<? extends TargetInstance> instances, Class<?> type, DataStage dataStage, boolean temporary) {
-        updateIndex(ESHelper.getSearchableIndex(dataStage, type, temporary), instances);
+    /**
+     * Removes the documents of the type which are not contained in the ids to keep. The ids of the index are streamed
+     * in the same order as the ids to keep are iterated, so the two are merge joined without loading either of them into
+     * memory - and the delete operations are submitted as soon as a bulk is complete.
+     *
+     * @param onRemoved is informed about the id and the identifiers of every document which has been removed successfully
+     */
+    private ErrorReport removeDeprecatedDocuments(String index, Class<?> type, SortedIdSet idsToKeep, BiConsumer<String, List<String>> onRemoved) {
+        final DeprecatedDocumentsRemoval removal = new DeprecatedDocumentsRemoval(index, idsToKeep.iterator(), onRemoved);
+        esServiceClient.forEachDocumentInOrder(index, type, Collections.singletonList(IDENTIFIER), removal);
+        removal.flush();
+        if (removal.removedDocuments > 0) {
+            logger.info(String.format("Removed %d deprecated documents from index %s", removal.removedDocuments, index));
+        }
+        return removal.errors;
     }
 
-    public void updateIdentifiersIndex(List<? extends TargetInstance> instances, DataStage dataStage) {
-        updateIndex(ESHelper.getIdentifierIndex(dataStage), instances);
+    private class DeprecatedDocumentsRemoval implements Consumer<ElasticSearchDocument> {
+        private final String index;
+        private final Iterator<String> idsToKeep;
+        private final BiConsumer<String, List<String>> onRemoved;
+        private final ErrorReport errors = new ErrorReport();
+        private final Map<String, List<String>> identifiersToRemove = new HashMap<>();
+        private String nextIdToKeep;
+        private String previousId;
+        private StringBuilder operations = new StringBuilder();
+        private int removedDocuments;
+
+        private DeprecatedDocumentsRemoval(String index, Iterator<String> idsToKeep, BiConsumer<String, List<String>> onRemoved) {
+            this.index = index;
+            this.idsToKeep = idsToKeep;
+            this.onRemoved = onRemoved;
+            this.nextIdToKeep = idsToKeep.hasNext() ? idsToKeep.next() : null;
+        }
+
+        @Override
+        public void accept(ElasticSearchDocument document) {
+            final String id = document.getId();
+            if (previousId != null && SortedIdSet.ORDER.compare(previousId, id) > 0) {
+                //Advancing the ids to keep would be wrong if the orders differ - we rather stop than remove documents to keep.
+                throw new IllegalStateException(String.format("The documents of %s are not sorted by their id (%s after %s)", index, id, previousId));
+            }
+            previousId = id;
+            while (nextIdToKeep != null && SortedIdSet.ORDER.compare(nextIdToKeep, id) < 0) {
+                nextIdToKeep = idsToKeep.hasNext() ? idsToKeep.next() : null;
+            }
+            if (!id.equals(nextIdToKeep)) {
+                operations.append(String.format("{ \"delete\" : { \"_id\" : \"%s\" } } \n", id));
+                identifiersToRemove.put(id, getIdentifiers(document));
+                removedDocuments++;
+                if (operations.length() > ESOperationsMaxCharPayload) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            if (operations.length() > 0) {
+                final ErrorReport bulkErrors = esServiceClient.updateIndex(index, Collections.singletonList(operations), (durationInMs, rejected) -> {});
+                errors.putAll(bulkErrors);
+                identifiersToRemove.forEach((id, identifiers) -> {
+                    if (!bulkErrors.containsKey(id)) {
+                        onRemoved.accept(id, identifiers);
+                    }
+                });
+                identifiersToRemove.clear();
+                operations = new StringBuilder();
+            }
+        }
     }
 
-    public void updateAutoReleasedIndex(List<? extends TargetInstance> instances, DataStage dataStage, Class<?> type, boolean temporary) {
-        updateIndex(ESHelper.getAutoReleasedIndex(dataStage, type, temporary), instances);
+    private static List<String> getIdentifiers(ElasticSearchDocument document) {
+        final Object identifiers = document.getSource() != null ? document.getSource().get(IDENTIFIER) : null;
+        if (identifiers instanceof Collection) {
+            return ((Collection<?>) identifiers).stream().filter(Objects::nonNull).map(Object::toString).collect(Collectors.toList());
+        }
+        return identifiers != null ? Collections.singletonList(identifiers.toString()) : Collections.emptyList();
+    }
+
+    /**
+     * @return the documents which couldn't be written - by document id
+     */
+    public ErrorReport updateSearchIndex(List<? extends TargetInstance> instances, Class<?> type, DataStage dataStage, boolean temporary) {
+        final ErrorReport errors = updateIndex(ESHelper.getSearchableIndex(dataStage, type, temporary), type, instances, temporary);
+        //Temporary indices are promoted to the real ones - we therefore route to them directly
+        documentRouting.register(dataStage, ESHelper.getSearchableIndex(dataStage, type, false), instances);
+        return errors;
+    }
+
+    /**
+     * @return the documents which couldn't be written - by document id
+     */
+    public ErrorReport updateIdentifiersIndex(List<? extends TargetInstance> instances, Class<?> type, DataStage dataStage) {
+        final ErrorReport errors = updateIndex(ESHelper.getIdentifierIndex(dataStage), type, instances, false);
+        documentRouting.register(dataStage, ESHelper.getIdentifierIndex(dataStage), instances);
+        return errors;
+    }
+
+    /**
+     * @return the documents which couldn't be written - by document id
+     */
+    public ErrorReport updateAutoReleasedIndex(List<? extends TargetInstance> instances, DataStage dataStage, Class<?> type, boolean temporary) {
+        final ErrorReport errors = updateIndex(ESHelper.getAutoReleasedIndex(dataStage, type, temporary), type, instances, temporary);
+        documentRouting.register(dataStage, ESHelper.getAutoReleasedIndex(dataStage, type, false), instances);
+        return errors;
+    }
+
+    /**
+     * Reads the document of the given identifier - with a direct get if the index holding it is known and with a
+     * search across all indices of the stage otherwise.
+     */
+    public ElasticSearchDocument getDocument(DataStage dataStage, String identifier) {
+        final DocumentRouting.Route route = documentRouting.getRoute(dataStage, identifier);
+        if (route != null) {
+            final ElasticSearchDocument document = esServiceClient.getDocumentById(route.getIndex(), route.getId());
+            if (document != null) {
+                document.setId(identifier);
+                return document;
+            }
+        }
+        final String indexes = ESHelper.getIndexesForDocument(dataStage);
+        final ElasticSearchDocument document = esServiceClient.searchDocumentByIdentifier(indexes, identifier);
+        if (document == null) {
+            documentRouting.remove(dataStage, identifier);
+            final ElasticSearchDocument notFound = new ElasticSearchDocument();
+            notFound.setId(identifier);
+            notFound.setType("_doc");
+            notFound.setIndex(indexes);
+            return notFound;
+        }
+        //The generation behind the alias is replaced by the next full replacement - we therefore route to the alias
+        documentRouting.register(dataStage, identifier, ESHelper.getAliasOfIndex(document.getIndex()), document.getId());
+        document.setId(identifier);
+        return document;
     }
 
-    public void removeDeprecatedDocumentsFromSearchIndex( Class<?> type, DataStage dataStage, Set<String> idsToKeep, boolean temporary) {
-        removeDeprecatedDocuments(ESHelper.getSearchableIndex(dataStage, type, temporary), type, idsToKeep);
+    public ErrorReport removeDeprecatedDocumentsFromSearchIndex(Class<?> type, DataStage dataStage, SortedIdSet idsToKeep, boolean temporary, BiConsumer<String, List<String>> onRemoved) {
+        return removeDeprecatedDocuments(ESHelper.getSearchableIndex(dataStage, type, temporary), type, idsToKeep, onRemoved);
     }
 
-    public void removeDeprecatedDocumentsFromIdentifiersIndex(Class<?> type, DataStage dataStage, Set<String> idsToKeep) {
-        removeDeprecatedDocuments(ESHelper.getIdentifierIndex(dataStage), type, idsToKeep);
+    public ErrorReport removeDeprecatedDocumentsFromIdentifiersIndex(Class<?> type, DataStage dataStage, SortedIdSet idsToKeep, BiConsumer<String, List<String>> onRemoved) {
+        return removeDeprecatedDocuments(ESHelper.getIdentifierIndex(dataStage), type, idsToKeep, onRemoved);
     }
 
-    public void removeDeprecatedDocumentsFromAutoReleasedIndex(Class<?> type, DataStage dataStage, Set<String> idsToKeep, boolean temporary) {
-        removeDeprecatedDocuments(ESHelper.getAutoReleasedIndex(dataStage, type, temporary), type, idsToKeep);
+    public ErrorReport removeDeprecatedDocumentsFromAutoReleasedIndex(Class<?> type, DataStage dataStage, SortedIdSet idsToKeep, boolean temporary, BiConsumer<String, List<String>> onRemoved) {
+        return removeDeprecatedDocuments(ESHelper.getAutoReleasedIndex(dataStage, type, temporary), type, idsToKeep, onRemoved);
     }
 
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tunes the page size of the KG queries and the payload size of the elasticsearch bulk requests per type by following
+ * an AIMD (additive increase / multiplicative decrease) strategy: As long as the upstream responds within the target
+ * latency, the size is slowly increased. As soon as it is too slow (or rejects requests), the size is halved. For the KG,
+ * a response exceeding the maximal payload counts as too slow as well.
+ */
+@Component
+public class AdaptiveBulkSizing {
+
+    private static final int ES_INITIAL_PAYLOAD = 1000000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final boolean enabled;
+    private final long targetKGLatencyInMs;
+    private final long targetESLatencyInMs;
+    private final long maxKGPayloadInBytes;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int minESPayload;
+    private final int maxESPayload;
+
+    private final Map<String, AIMD> pageSizes = new ConcurrentHashMap<>();
+    private final Map<String, AIMD> esPayloads = new ConcurrentHashMap<>();
+
+    public AdaptiveBulkSizing(@Value("${indexing.adaptive.enabled:true}") boolean enabled,
+                              @Value("${indexing.adaptive.targetKGLatencyInMs:30000}") long targetKGLatencyInMs,
+                              @Value("${indexing.adaptive.targetESLatencyInMs:10000}") long targetESLatencyInMs,
+                              @Value("${indexing.adaptive.maxKGPayloadInBytes:50000000}") long maxKGPayloadInBytes,
+                              @Value("${indexing.adaptive.minPageSize:10}") int minPageSize,
+                              @Value("${indexing.adaptive.maxPageSize:5000}") int maxPageSize,
+                              @Value("${indexing.adaptive.minESPayload:100000}") int minESPayload,
+                              @Value("${indexing.adaptive.maxESPayload:10000000}") int maxESPayload) {
+        this.enabled = enabled;
+        this.targetKGLatencyInMs = targetKGLatencyInMs;
+        this.targetESLatencyInMs = targetESLatencyInMs;
+        this.maxKGPayloadInBytes = maxKGPayloadInBytes;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.minESPayload = minESPayload;
+        this.maxESPayload = maxESPayload;
+    }
+
+    private static class AIMD {
+        private final int min;
+        private final int max;
+        private final int increment;
+        private int current;
+
+        private AIMD(int initial, int min, int max) {
+            this.min = Math.min(min, initial);
+            this.max = Math.max(max, initial);
+            //We grow by a tenth of the initial value - so it takes ten successful round trips to double the size
+            this.increment = Math.max(1, initial / 10);
+            this.current = initial;
+        }
+
+        private synchronized int get() {
+            return current;
+        }
+
+        private synchronized int adapt(boolean overloaded) {
+            current = overloaded ? Math.max(min, current / 2) : Math.min(max, current + increment);
+            return current;
+        }
+    }
+
+    public int getPageSize(Class<?> sourceType, int initialPageSize) {
+        if (!enabled) {
+            return initialPageSize;
+        }
+        return pageSizes.computeIfAbsent(sourceType.getSimpleName(), k -> new AIMD(initialPageSize, minPageSize, maxPageSize)).get();
+    }
+
+    public void onPageFetched(Class<?> sourceType, long durationInMs) {
+        onPageFetched(sourceType, durationInMs, null);
+    }
+
+    /**
+     * @param durationInMs the time until the last byte of the page has been received - excluding the translation
+     * @param payloadInBytes the size of the response (null if unknown)
+     */
+    public void onPageFetched(Class<?> sourceType, long durationInMs, Long payloadInBytes) {
+        final AIMD pageSize = pageSizes.get(sourceType.getSimpleName());
+        if (enabled && pageSize != null) {
+            final boolean tooLarge = payloadInBytes != null && payloadInBytes > maxKGPayloadInBytes;
+            final boolean overloaded = tooLarge || durationInMs > targetKGLatencyInMs;
+            final int next = pageSize.adapt(overloaded);
+            if (overloaded) {
+                logger.info(String.format("Querying %s took %dms%s - reducing the page size to %d", sourceType.getSimpleName(), durationInMs, tooLarge ? String.format(" and returned %d bytes", payloadInBytes) : "", next));
+            }
+        }
+    }
+
+    public int getESPayload(Class<?> targetType) {
+        if (!enabled) {
+            return ES_INITIAL_PAYLOAD;
+        }
+        return esPayloads.computeIfAbsent(targetType.getSimpleName(), k -> new AIMD(ES_INITIAL_PAYLOAD, minESPayload, maxESPayload)).get();
+    }
+
+    /**
+     * @param rejected true if elasticsearch has rejected the bulk request or some of its items (429)
+     */
+    public void onBulkWritten(Class<?> targetType, long durationInMs, boolean rejected) {
+        final AIMD payload = esPayloads.get(targetType.getSimpleName());
+        if (enabled && payload != null) {
+            final boolean overloaded = rejected || durationInMs > targetESLatencyInMs;
+            final int next = payload.adapt(overloaded);
+            if (overloaded) {
+                logger.info(String.format("Bulk request for %s took %dms%s - reducing the payload to %d chars", targetType.getSimpleName(), durationInMs, rejected ? " and was rejected" : "", next));
+            }
+        }
+    }
+
+    /**
+     * @return the currently chosen KG page sizes (by source type) and elasticsearch bulk payloads (by target type)
+     */
+    public Map<String, Map<String, Integer>> getStats() {
+        Map<String, Integer> pages = new TreeMap<>();
+        pageSizes.forEach((k, v) -> pages.put(k, v.get()));
+        Map<String, Integer> payloads = new TreeMap<>();
+        esPayloads.forEach((k, v) -> payloads.put(k, v.get()));
+        return Map.of("kgPageSizes", pages, "esBulkPayloads", payloads);
+    }
+}
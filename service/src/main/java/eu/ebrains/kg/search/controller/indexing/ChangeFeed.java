@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.indexing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import eu.ebrains.kg.search.controller.elasticsearch.ElasticSearchController;
+import eu.ebrains.kg.search.controller.kg.KGv3;
+import eu.ebrains.kg.search.controller.translators.kgv3.TranslatorV3;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.source.openMINDSv3.InstanceChangeV3;
+import eu.ebrains.kg.search.utils.MetaModelUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Detects the instances which have been (re-)released since the last incremental update of a type. For every query of
+ * the search, a "changes" query is derived which only keeps the restrictions of the full query and returns the release
+ * dates of the instances and of all instances they link to or embed. The latest release date seen is kept as
+ * high-water mark per type in elasticsearch.
+ */
+@Component
+public class ChangeFeed {
+
+    private static final String QUERY_NAME = "changes";
+
+    private static final String LAST_RELEASED_AT = "lastReleasedAt";
+
+    private static final String LAST_RELEASED_AT_PATH = "https://core.kg.ebrains.eu/vocab/meta/lastReleasedAt";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final KGv3 kgV3;
+    private final ElasticSearchController elasticSearchController;
+    private final int pageSize;
+
+    public ChangeFeed(KGv3 kgV3, ElasticSearchController elasticSearchController, @Value("${indexing.changeFeed.pageSize:5000}") int pageSize) {
+        this.kgV3 = kgV3;
+        this.elasticSearchController = elasticSearchController;
+        this.pageSize = pageSize;
+    }
+
+    public static String getChangesQueryId(String queryId) {
+        return UUID.nameUUIDFromBytes(String.format("%s/%s", QUERY_NAME, queryId).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Derives the changes query from the full query of a type: The instances have to qualify in the same way (required
+     * properties and filters are kept) so instances dropping out of the full query disappear from the feed as well. Every
+     * linked or embedded instance contributes its release date since a re-release of it changes the document too.
+     */
+    public static String createChangesQuery(String query) throws JsonProcessingException {
+        final ObjectNode changesQuery = (ObjectNode) OBJECT_MAPPER.readTree(query);
+        final JsonNode meta = changesQuery.get("meta");
+        if (meta instanceof ObjectNode) {
+            ((ObjectNode) meta).put("name", "Change feed query");
+        }
+        changesQuery.set("structure", createChangesStructure(changesQuery.get("structure"), true));
+        return OBJECT_MAPPER.writeValueAsString(changesQuery);
+    }
+
+    private static ArrayNode createChangesStructure(JsonNode structure, boolean root) {
+        final ArrayNode result = OBJECT_MAPPER.createArrayNode();
+        result.add(createReleaseProperty(LAST_RELEASED_AT, TextNode.valueOf(LAST_RELEASED_AT_PATH)));
+        if (structure == null) {
+            return result;
+        }
+        int linkedReleases = 0;
+        for (JsonNode element : structure.isArray() ? structure : List.of(structure)) {
+            if (!(element instanceof ObjectNode)) {
+                continue;
+            }
+            final JsonNode path = element.get("path");
+            final JsonNode nestedStructure = element.get("structure");
+            final boolean isId = path != null && "@id".equals(path.asText());
+            if (element.path("required").asBoolean(false) || element.has("filter") || nestedStructure != null || (root && isId)) {
+                final ObjectNode copy = element.deepCopy();
+                //The order of the results is irrelevant for the change detection
+                copy.remove(List.of("sort", "ensureOrder"));
+                if (nestedStructure != null) {
+                    copy.set("structure", createChangesStructure(nestedStructure, false));
+                }
+                result.add(copy);
+            }
+            if (path != null && path.isArray()) {
+                //Every hop of a path traverses an instance which can be re-released on its own.
+                for (int hops = 1; hops < path.size(); hops++) {
+                    final ArrayNode releasePath = OBJECT_MAPPER.createArrayNode();
+                    for (int i = 0; i < hops; i++) {
+                        releasePath.add(path.get(i).deepCopy());
+                    }
+                    releasePath.add(LAST_RELEASED_AT_PATH);
+                    result.add(createReleaseProperty(String.format("%s%d", LAST_RELEASED_AT, ++linkedReleases), releasePath));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static ObjectNode createReleaseProperty(String propertyName, JsonNode path) {
+        final ObjectNode property = OBJECT_MAPPER.createObjectNode();
+        property.put("propertyName", String.format("query:%s", propertyName));
+        property.set("path", path);
+        return property;
+    }
+
+    public static class Changes {
+        private final Date highWaterMark;
+        private Date latestRelease;
+        private final Map<String, Set<String>> existingIdsByQueryId = new HashMap<>();
+        private final Map<String, Set<String>> changedIdsByQueryId = new HashMap<>();
+        private Set<String> removedIds = Collections.emptySet();
+
+        private Changes(Date highWaterMark) {
+            this.highWaterMark = highWaterMark;
+            this.latestRelease = highWaterMark;
+        }
+
+        /**
+         * @return the release date up to which the type has been indexed previously - null if it has never been indexed incrementally.
+         */
+        public Date getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public Map<String, Set<String>> getExistingIdsByQueryId() {
+            return existingIdsByQueryId;
+        }
+
+        public Map<String, Set<String>> getChangedIdsByQueryId() {
+            return changedIdsByQueryId;
+        }
+
+        public Set<String> getExistingIds() {
+            Set<String> result = new HashSet<>();
+            existingIdsByQueryId.values().forEach(result::addAll);
+            return result;
+        }
+
+        public Set<String> getChangedIds() {
+            Set<String> result = new HashSet<>();
+            changedIdsByQueryId.values().forEach(result::addAll);
+            return result;
+        }
+
+        /**
+         * @return the ids of the indexed documents whose instances are not listed anymore (unreleased or deleted)
+         */
+        public Set<String> getRemovedIds() {
+            return removedIds;
+        }
+
+        void setRemovedIds(Set<String> removedIds) {
+            this.removedIds = removedIds;
+        }
+    }
+
+    private String getStateId(Class<?> type, DataStage dataStage) {
+        return String.format("%s_%s", dataStage.name().toLowerCase(), MetaModelUtils.getIndexNameForClass(type));
+    }
+
+    private Date getHighWaterMark(Class<?> type, DataStage dataStage) {
+        final Map<?, ?> state = elasticSearchController.getIndexingState(getStateId(type, dataStage));
+        if (state != null && state.get(LAST_RELEASED_AT) instanceof Number) {
+            return new Date(((Number) state.get(LAST_RELEASED_AT)).longValue());
+        }
+        return null;
+    }
+
+    /**
+     * Lists all instances of the translator - the ones released at or after the high-water mark are reported as changed.
+     */
+    public Changes scan(TranslatorV3<?, ?, ?> translator, Class<?> type, DataStage dataStage) {
+        final Changes changes = new Changes(getHighWaterMark(type, dataStage));
+        for (String queryId : translator.getQueryIds()) {
+            final Set<String> existingIds = changes.existingIdsByQueryId.computeIfAbsent(queryId, k -> new HashSet<>());
+            final Set<String> changedIds = changes.changedIdsByQueryId.computeIfAbsent(queryId, k -> new HashSet<>());
+            final String changesQueryId = getChangesQueryId(queryId);
+            boolean hasMore = true;
+            int from = 0;
+            while (hasMore) {
+                final InstanceChangeV3.Result page = kgV3.executeQuery(InstanceChangeV3.Result.class, dataStage, changesQueryId, from, pageSize);
+                if (page == null || page.getData() == null) {
+                    throw new IllegalStateException(String.format("Unexpected response of the change feed for %s", type.getSimpleName()));
+                }
+                page.getData().stream().filter(Objects::nonNull).forEach(i -> {
+                    existingIds.add(i.getUUID());
+                    final Date lastReleasedAt = i.getLatestRelease();
+                    //Instances released at exactly the high-water mark are taken again - they could have been released after the last scan in the same millisecond.
+                    if (lastReleasedAt == null || changes.highWaterMark == null || !lastReleasedAt.before(changes.highWaterMark)) {
+                        changedIds.add(i.getUUID());
+                    }
+                    if (lastReleasedAt != null && (changes.latestRelease == null || lastReleasedAt.after(changes.latestRelease))) {
+                        changes.latestRelease = lastReleasedAt;
+                    }
+                });
+                from = page.getFrom() + page.getSize();
+                hasMore = !page.getData().isEmpty() && from < page.getTotal();
+            }
+        }
+        logger.info(String.format("Change feed of %s: %d out of %d instances changed since %s", type.getSimpleName(), changes.getChangedIds().size(), changes.getExistingIds().size(), changes.highWaterMark));
+        return changes;
+    }
+
+    /**
+     * Moves the high-water mark of the type forward - to be called once all changes have been indexed.
+     */
+    public void commit(Class<?> type, DataStage dataStage, Changes changes) {
+        if (changes.latestRelease != null) {
+            elasticSearchController.updateIndexingState(getStateId(type, dataStage), Map.of(LAST_RELEASED_AT, changes.latestRelease.getTime()));
+        }
+    }
+}
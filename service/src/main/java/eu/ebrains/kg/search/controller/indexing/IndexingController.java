@@ -31,25 +31,34 @@ import eu.ebrains.kg.search.controller.mapping.MappingController;
 import eu.ebrains.kg.search.controller.translators.TargetInstancesResult;
 import eu.ebrains.kg.search.controller.translators.TranslationController;
 import eu.ebrains.kg.search.controller.translators.Translator;
+import eu.ebrains.kg.search.controller.translators.kgv3.TranslatorV3;
 import eu.ebrains.kg.search.model.DataStage;
 import eu.ebrains.kg.search.model.ErrorReport;
 import eu.ebrains.kg.search.model.ErrorReportResult;
 import eu.ebrains.kg.search.model.TranslatorModel;
 import eu.ebrains.kg.search.model.source.ResultsOfKG;
 import eu.ebrains.kg.search.model.source.ResultsOfKGv2;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
 import eu.ebrains.kg.search.model.target.elasticsearch.TargetInstance;
 import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.TargetInternalReference;
 import eu.ebrains.kg.search.services.DOICitationFormatter;
+import eu.ebrains.kg.search.utils.CompactIdSet;
 import eu.ebrains.kg.search.utils.IdUtils;
+import eu.ebrains.kg.search.utils.SortedIdSet;
 import eu.ebrains.kg.search.utils.TranslationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static eu.ebrains.kg.search.controller.translators.Helpers.collectAllTargetInternalReferences;
@@ -58,19 +67,40 @@ import static eu.ebrains.kg.search.controller.translators.Helpers.collectAllTarg
 public class IndexingController {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private static final String REMOVAL_OF_DEPRECATED_DOCUMENTS = "RemovalOfDeprecatedDocuments";
 
     private final MappingController mappingController;
     private final ElasticSearchController elasticSearchController;
     private final TranslationController translationController;
     private final DOICitationFormatter doiCitationFormatter;
+    private final AdaptiveBulkSizing adaptiveBulkSizing;
+    private final ChangeFeed changeFeed;
+    private final ReferenceExistenceCache referenceExistenceCache;
 
     private final KGv2 kgV2;
     private final KGv3 kgV3;
 
     private final boolean skipKGv2;
 
+    private final int pipelineQueueDepth;
+    private final boolean streaming;
+    private final boolean changeDriven;
+    private final double maxChangeRatio;
+    //Every stage has its own pool - a stage waiting for its upstream stage can therefore never occupy the thread the upstream stage needs.
+    private final ThreadPoolExecutor fetchExecutor;
+    private final ThreadPoolExecutor translateExecutor;
+    //Fetches the single instances of the change-driven updates - these tasks don't wait for each other.
+    private final ThreadPoolExecutor instanceFetchExecutor;
 
-    public IndexingController(MappingController mappingController, ElasticSearchController elasticSearchController, TranslationController translationController, KGv2 kgV2, KGv3 kgV3, DOICitationFormatter doiCitationFormatter, @Value("${skipKGv2:false}") boolean skipKGv2) {
+    //Types are indexed concurrently - these caps make sure we don't overwhelm the upstream services.
+    private final Semaphore kgPermits;
+    //A permit stands for a single request to elasticsearch.
+    private final Semaphore esPermits;
+    //A write submits up to "indexing.bulk.maxInFlightRequests" bulks concurrently - it therefore holds as many permits.
+    private final int esPermitsPerWrite;
+
+
+    public IndexingController(MappingController mappingController, ElasticSearchController elasticSearchController, TranslationController translationController, KGv2 kgV2, KGv3 kgV3, DOICitationFormatter doiCitationFormatter, AdaptiveBulkSizing adaptiveBulkSizing, ChangeFeed changeFeed, ReferenceExistenceCache referenceExistenceCache, @Value("${skipKGv2:false}") boolean skipKGv2, @Value("${indexing.pipeline.queueDepth:2}") int pipelineQueueDepth, @Value("${indexing.parallelism:4}") int parallelism, @Value("${indexing.maxConcurrentKGRequests:4}") int maxConcurrentKGRequests, @Value("${indexing.maxConcurrentESRequests:4}") int maxConcurrentESRequests, @Value("${indexing.bulk.maxInFlightRequests:2}") int maxInFlightBulkRequests, @Value("${indexing.streaming:false}") boolean streaming, @Value("${indexing.changeDriven:false}") boolean changeDriven, @Value("${indexing.changeDriven.maxChangeRatio:0.3}") double maxChangeRatio) {
         this.mappingController = mappingController;
         this.elasticSearchController = elasticSearchController;
         this.translationController = translationController;
@@ -78,6 +108,59 @@ public class IndexingController {
         this.kgV3 = kgV3;
         this.skipKGv2 = skipKGv2;
         this.doiCitationFormatter = doiCitationFormatter;
+        this.adaptiveBulkSizing = adaptiveBulkSizing;
+        this.changeFeed = changeFeed;
+        this.referenceExistenceCache = referenceExistenceCache;
+        this.changeDriven = changeDriven;
+        this.maxChangeRatio = maxChangeRatio;
+        this.pipelineQueueDepth = Math.max(1, pipelineQueueDepth);
+        //The indexing of the types is run by the IndexingScheduler - so there are at most "parallelism" pipelines at the same time
+        this.fetchExecutor = createExecutor(parallelism, "indexing-fetch-");
+        this.translateExecutor = createExecutor(parallelism, "indexing-translate-");
+        this.instanceFetchExecutor = createExecutor(maxConcurrentKGRequests, "indexing-instance-fetch-");
+        this.streaming = streaming;
+        this.kgPermits = new Semaphore(Math.max(1, maxConcurrentKGRequests), true);
+        this.esPermits = new Semaphore(Math.max(1, maxConcurrentESRequests), true);
+        this.esPermitsPerWrite = Math.max(1, Math.min(maxInFlightBulkRequests, maxConcurrentESRequests));
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, String threadNamePrefix) {
+        final int poolSize = Math.max(1, threads);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new CustomizableThreadFactory(threadNamePrefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private <T> T withPermit(Semaphore permits, Supplier<T> call) {
+        return withPermits(permits, 1, call);
+    }
+
+    private <T> T withPermits(Semaphore permits, int numberOfPermits, Supplier<T> call) {
+        try {
+            permits.acquire(numberOfPermits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a permit for an upstream request", e);
+        }
+        try {
+            return call.get();
+        } finally {
+            permits.release(numberOfPermits);
+        }
+    }
+
+    private void withPermit(Semaphore permits, Runnable call) {
+        withPermit(permits, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+        translateExecutor.shutdownNow();
+        instanceFetchExecutor.shutdownNow();
     }
 
     private <Source, Target extends TargetInstance> List<Target> getRelatedInstance(KG kg, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, Target instance, DataStage dataStage){
@@ -104,9 +187,15 @@ public class IndexingController {
 
     public <v1Input, v2Input, v3Input, Target extends TargetInstance> List<ErrorReportResult.ErrorReportResultBySourceType> populateIndex(TranslatorModel<v1Input, v2Input, v3Input, Target> translatorModel, DataStage dataStage, boolean temporary) {
         List<ErrorReportResult.ErrorReportResultBySourceType> errorReportBySourceType = new ArrayList<>();
-        Set<String> handledIdentifiers = new HashSet<>();
-        Set<String> searchableIds = new HashSet<>();
-        Set<String> nonSearchableIds = new HashSet<>();
+        Set<String> handledIdentifiers = new CompactIdSet();
+        //The written ids of all passes are collected in the same (disk-backed) sets
+        try (SortedIdSet searchableIds = new SortedIdSet(); SortedIdSet nonSearchableIds = new SortedIdSet()) {
+            populateIndex(translatorModel, dataStage, temporary, errorReportBySourceType, handledIdentifiers, searchableIds, nonSearchableIds);
+        }
+        return errorReportBySourceType;
+    }
+
+    private <v1Input, v2Input, v3Input, Target extends TargetInstance> void populateIndex(TranslatorModel<v1Input, v2Input, v3Input, Target> translatorModel, DataStage dataStage, boolean temporary, List<ErrorReportResult.ErrorReportResultBySourceType> errorReportBySourceType, Set<String> handledIdentifiers, SortedIdSet searchableIds, SortedIdSet nonSearchableIds) {
         if(translatorModel.getV3translator()!=null) {
             final UpdateResult updateResultV3 = update(kgV3, translatorModel.getTargetClass(), translatorModel.getV3translator(), translatorModel.getBulkSize(), dataStage, Collections.<String>emptySet(), instance -> {
                 if (!skipKGv2 && translatorModel.getMerger() != null) {
@@ -118,7 +207,7 @@ public class IndexingController {
                 } else {
                     return instance;
                 }
-            }, translatorModel.isAutoRelease(), temporary);
+            }, translatorModel.isAutoRelease(), temporary, searchableIds, nonSearchableIds);
             if (!updateResultV3.errors.isEmpty()) {
                 ErrorReportResult.ErrorReportResultBySourceType e = new ErrorReportResult.ErrorReportResultBySourceType();
                 e.setSourceType(translatorModel.getV3translator().getSourceType().getSimpleName());
@@ -126,8 +215,6 @@ public class IndexingController {
                 errorReportBySourceType.add(e);
             }
             handledIdentifiers.addAll(updateResultV3.handledIdentifiers);
-            searchableIds.addAll(updateResultV3.searchableIds);
-            nonSearchableIds.addAll(updateResultV3.nonSearchableIds);
         }
         if(!skipKGv2) {
             boolean indexDataFromOldKG = dataStage == DataStage.RELEASED || !translatorModel.isOnlyV3ForInProgress();
@@ -140,7 +227,7 @@ public class IndexingController {
                     } else {
                         return instance;
                     }
-                }, translatorModel.isAutoRelease(), temporary);
+                }, translatorModel.isAutoRelease(), temporary, searchableIds, nonSearchableIds);
                 if (!updateResultV2.errors.isEmpty()) {
                     ErrorReportResult.ErrorReportResultBySourceType e = new ErrorReportResult.ErrorReportResultBySourceType();
                     e.setSourceType(translatorModel.getV2translator().getSourceType().getSimpleName());
@@ -148,14 +235,10 @@ public class IndexingController {
                     errorReportBySourceType.add(e);
                 }
                 handledIdentifiers.addAll(updateResultV2.handledIdentifiers);
-                searchableIds.addAll(updateResultV2.searchableIds);
-                nonSearchableIds.addAll(updateResultV2.nonSearchableIds);
             }
             if (indexDataFromOldKG && translatorModel.getV1translator() != null) {
-                final UpdateResult updateResultV1 = update(kgV2, translatorModel.getTargetClass(), translatorModel.getV1translator(), translatorModel.getBulkSizeV2(), dataStage, handledIdentifiers, null, translatorModel.isAutoRelease(), temporary);
+                final UpdateResult updateResultV1 = update(kgV2, translatorModel.getTargetClass(), translatorModel.getV1translator(), translatorModel.getBulkSizeV2(), dataStage, handledIdentifiers, null, translatorModel.isAutoRelease(), temporary, searchableIds, nonSearchableIds);
                 handledIdentifiers.addAll(updateResultV1.handledIdentifiers);
-                searchableIds.addAll(updateResultV1.searchableIds);
-                nonSearchableIds.addAll(updateResultV1.nonSearchableIds);
                 if (!updateResultV1.errors.isEmpty()) {
                     ErrorReportResult.ErrorReportResultBySourceType e = new ErrorReportResult.ErrorReportResultBySourceType();
                     e.setSourceType(translatorModel.getV1translator().getSourceType().getSimpleName());
@@ -164,28 +247,185 @@ public class IndexingController {
                 }
             }
         }
+        final ErrorReport removalErrors = new ErrorReport();
+        final Map<String, List<String>> removedDocuments = new HashMap<>();
         if(translatorModel.isAutoRelease()){
-            elasticSearchController.removeDeprecatedDocumentsFromAutoReleasedIndex(translatorModel.getTargetClass(), dataStage, nonSearchableIds, temporary);
+            removalErrors.putAll(withPermit(esPermits, () -> elasticSearchController.removeDeprecatedDocumentsFromAutoReleasedIndex(translatorModel.getTargetClass(), dataStage, nonSearchableIds, temporary, removedDocuments::put)));
         }
         else {
-            elasticSearchController.removeDeprecatedDocumentsFromSearchIndex(translatorModel.getTargetClass(), dataStage, searchableIds, temporary);
-            elasticSearchController.removeDeprecatedDocumentsFromIdentifiersIndex(translatorModel.getTargetClass(), dataStage, nonSearchableIds);
+            removalErrors.putAll(withPermit(esPermits, () -> elasticSearchController.removeDeprecatedDocumentsFromSearchIndex(translatorModel.getTargetClass(), dataStage, searchableIds, temporary, removedDocuments::put)));
+            removalErrors.putAll(withPermit(esPermits, () -> elasticSearchController.removeDeprecatedDocumentsFromIdentifiersIndex(translatorModel.getTargetClass(), dataStage, nonSearchableIds, removedDocuments::put)));
+        }
+        evictRemovedDocuments(dataStage, removedDocuments, List.of(searchableIds, nonSearchableIds));
+        if (!removalErrors.isEmpty()) {
+            ErrorReportResult.ErrorReportResultBySourceType e = new ErrorReportResult.ErrorReportResultBySourceType();
+            e.setSourceType(REMOVAL_OF_DEPRECATED_DOCUMENTS);
+            e.setErrors(removalErrors);
+            errorReportBySourceType.add(e);
+        }
+    }
+
+    /**
+     * @return the changes since the last incremental update of the type or null if the type can't be updated based on
+     * its changes (only the released instances of the KG v3 provide a release date).
+     */
+    public ChangeFeed.Changes detectChanges(TranslatorModel<?, ?, ?, ?> translatorModel, DataStage dataStage) {
+        final boolean onlyV3 = skipKGv2 || (translatorModel.getV1translator() == null && translatorModel.getV2translator() == null);
+        if (!changeDriven || dataStage != DataStage.RELEASED || translatorModel.getV3translator() == null || !onlyV3) {
+            return null;
+        }
+        try {
+            final ChangeFeed.Changes changes = changeFeed.scan(translatorModel.getV3translator(), translatorModel.getTargetClass(), dataStage);
+            //The documents referencing the removed instances have to be updated as well - they would keep dead links otherwise
+            changes.setRemovedIds(withPermit(esPermits, () -> elasticSearchController.getDeprecatedDocumentIds(translatorModel.getTargetClass(), dataStage, changes.getExistingIds(), translatorModel.isAutoRelease())));
+            return changes;
+        } catch (WebClientResponseException e) {
+            logger.warn(String.format("Was not able to read the change feed of %s - falling back to a full update", translatorModel.getTargetClass().getSimpleName()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Updates the index with the instances which have changed since the last run - and the ones referencing a changed
+     * or removed instance (of any type), since they embed e.g. its name or a link to it. Documents of instances which
+     * don't exist anymore are removed.
+     *
+     * @param changedIds the changed and removed instances of all types
+     */
+    public <v1Input, v2Input, v3Input, Target extends TargetInstance> List<ErrorReportResult.ErrorReportResultBySourceType> populateIndexByChanges(TranslatorModel<v1Input, v2Input, v3Input, Target> translatorModel, DataStage dataStage, ChangeFeed.Changes changes, Set<String> changedIds) {
+        final Class<Target> type = translatorModel.getTargetClass();
+        final Set<String> existingIds = changes.getExistingIds();
+        Map<String, Set<String>> idsToUpdate = new HashMap<>();
+        changes.getChangedIdsByQueryId().forEach((queryId, ids) -> idsToUpdate.put(queryId, new HashSet<>(ids)));
+        if (changes.getHighWaterMark() != null) {
+            final Set<String> referencingIds = withPermit(esPermits, () -> elasticSearchController.getDocumentIdsReferencing(new ArrayList<>(changedIds), type, dataStage, translatorModel.isAutoRelease()));
+            changes.getExistingIdsByQueryId().forEach((queryId, ids) -> referencingIds.stream().filter(ids::contains).forEach(idsToUpdate.get(queryId)::add));
+        }
+        final int numberOfUpdates = idsToUpdate.values().stream().mapToInt(Set::size).sum();
+        if (changes.getHighWaterMark() == null || numberOfUpdates > existingIds.size() * maxChangeRatio) {
+            //Streaming through all pages is cheaper than querying many single instances
+            logger.info(String.format("Updating all instances of %s (%d changes)", type.getSimpleName(), numberOfUpdates));
+            final List<ErrorReportResult.ErrorReportResultBySourceType> result = populateIndex(translatorModel, dataStage, false);
+            //The changes of a failed run are taken again by the next one
+            if (result.isEmpty()) {
+                changeFeed.commit(type, dataStage, changes);
+            }
+            return result;
+        }
+        logger.info(String.format("Updating %d changed instances of %s", numberOfUpdates, type.getSimpleName()));
+        final TranslatorV3<v3Input, Target, ? extends ResultsOfKGv3<v3Input>> translator = translatorModel.getV3translator();
+        UpdateResult updateResult = new UpdateResult(new SortedIdSet(), new SortedIdSet());
+        try {
+            updateChangedInstances(translatorModel, dataStage, idsToUpdate, existingIds, updateResult);
+        } finally {
+            updateResult.searchableIds.close();
+            updateResult.nonSearchableIds.close();
+        }
+        List<ErrorReportResult.ErrorReportResultBySourceType> errorReportBySourceType = new ArrayList<>();
+        if (updateResult.errors.isEmpty()) {
+            changeFeed.commit(type, dataStage, changes);
+        } else {
+            ErrorReportResult.ErrorReportResultBySourceType e = new ErrorReportResult.ErrorReportResultBySourceType();
+            e.setSourceType(translator.getSourceType().getSimpleName());
+            e.setErrors(updateResult.errors);
+            errorReportBySourceType.add(e);
         }
         return errorReportBySourceType;
     }
 
+    private <v3Input, Target extends TargetInstance> void updateChangedInstances(TranslatorModel<?, ?, v3Input, Target> translatorModel, DataStage dataStage, Map<String, Set<String>> idsToUpdate, Set<String> existingIds, UpdateResult updateResult) {
+        final Class<Target> type = translatorModel.getTargetClass();
+        final TranslatorV3<v3Input, Target, ? extends ResultsOfKGv3<v3Input>> translator = translatorModel.getV3translator();
+        idsToUpdate.forEach((queryId, ids) -> {
+            final List<String> idList = new ArrayList<>(ids);
+            for (int i = 0; i < idList.size(); i += translatorModel.getBulkSize()) {
+                final ResultsOfKGv3<v3Input> page = new ResultsOfKGv3<>();
+                //The KG can only be queried for single instances - the ones of a batch are fetched concurrently (limited by the KG permits)
+                final List<CompletableFuture<v3Input>> batch = idList.subList(i, Math.min(idList.size(), i + translatorModel.getBulkSize())).stream().map(id -> CompletableFuture.supplyAsync(() -> {
+                    final ResultsOfKG<v3Input> instance = withPermit(kgPermits, () -> kgV3.executeQueryForInstance(translator.getResultType(), dataStage, queryId, id, true));
+                    //The instance could be part of another query of the same translator.
+                    return instance != null && instance.getData() != null && !instance.getData().isEmpty() ? instance.getData().get(0) : null;
+                }, instanceFetchExecutor)).collect(Collectors.toList());
+                page.setData(batch.stream().map(IndexingController::join).filter(Objects::nonNull).collect(Collectors.toList()));
+                page.setFrom(i);
+                page.setSize(page.getData().size());
+                page.setTotal(idList.size());
+                writePage(translationController.translateSourceInstances(translator, page, dataStage), updateResult, type, dataStage, Collections.emptySet(), null, translatorModel.isAutoRelease(), false);
+            }
+        });
+        //Documents of instances which have been switched from searchable to non-searchable (or vice versa) are removed from their previous index.
+        //Only a fraction of the instances has been updated - so the sets of written ids are small.
+        Set<String> searchableIds = new HashSet<>(existingIds);
+        updateResult.nonSearchableIds.forEach(searchableIds::remove);
+        Set<String> nonSearchableIds = new HashSet<>(existingIds);
+        updateResult.searchableIds.forEach(nonSearchableIds::remove);
+        final Map<String, List<String>> removedDocuments = new HashMap<>();
+        if (translatorModel.isAutoRelease()) {
+            removeDeprecatedDocuments(existingIds, idsToKeep -> elasticSearchController.removeDeprecatedDocumentsFromAutoReleasedIndex(type, dataStage, idsToKeep, false, removedDocuments::put), updateResult.errors);
+        } else {
+            removeDeprecatedDocuments(searchableIds, idsToKeep -> elasticSearchController.removeDeprecatedDocumentsFromSearchIndex(type, dataStage, idsToKeep, false, removedDocuments::put), updateResult.errors);
+            removeDeprecatedDocuments(nonSearchableIds, idsToKeep -> elasticSearchController.removeDeprecatedDocumentsFromIdentifiersIndex(type, dataStage, idsToKeep, removedDocuments::put), updateResult.errors);
+        }
+        evictRemovedDocuments(dataStage, removedDocuments, List.of(searchableIds, nonSearchableIds));
+    }
+
+    /**
+     * Removes the identifiers of the removed documents from the reference existence cache - unless the document still
+     * exists in another index (its instance has been switched from searchable to non-searchable or vice versa).
+     */
+    private void evictRemovedDocuments(DataStage dataStage, Map<String, List<String>> removedDocuments, List<? extends Iterable<String>> keptIds) {
+        if (removedDocuments.isEmpty()) {
+            return;
+        }
+        keptIds.forEach(ids -> ids.forEach(removedDocuments::remove));
+        final Set<String> identifiers = new HashSet<>();
+        removedDocuments.values().forEach(identifiers::addAll);
+        referenceExistenceCache.remove(dataStage, identifiers);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void removeDeprecatedDocuments(Set<String> idsToKeep, Function<SortedIdSet, ErrorReport> removal, ErrorReport errors) {
+        try (SortedIdSet sortedIdsToKeep = SortedIdSet.of(idsToKeep)) {
+            errors.putAll(withPermit(esPermits, () -> removal.apply(sortedIdsToKeep)));
+        }
+    }
+
     private static class UpdateResult {
-        private final Set<String> handledIdentifiers = new HashSet<>();
-        private final Set<String> searchableIds = new HashSet<>();
-        private final Set<String> nonSearchableIds = new HashSet<>();
+        private final Set<String> handledIdentifiers = new CompactIdSet();
+        private final SortedIdSet searchableIds;
+        private final SortedIdSet nonSearchableIds;
         private final ErrorReport errors = new ErrorReport();
+
+        private UpdateResult(SortedIdSet searchableIds, SortedIdSet nonSearchableIds) {
+            this.searchableIds = searchableIds;
+            this.nonSearchableIds = nonSearchableIds;
+        }
+    }
+
+    /**
+     * Keeps the identifiers of the stage in memory until {@link #closeReferenceCache(DataStage)} is called - so the
+     * references of all types indexed in between are resolved without querying elasticsearch.
+     */
+    public void openReferenceCache(DataStage dataStage) {
+        referenceExistenceCache.open(dataStage);
+    }
+
+    public void closeReferenceCache(DataStage dataStage) {
+        referenceExistenceCache.close(dataStage);
     }
 
     private <Target extends TargetInstance> void clearNonResolvableReferences(List<Target> instances, DataStage dataStage){
         List<TargetInternalReference> references = new ArrayList<>();
         instances.forEach(i -> collectAllTargetInternalReferences(i, references));
         final List<String> refs = references.stream().map(TargetInternalReference::getReference).filter(Objects::nonNull).distinct().collect(Collectors.toList());
-        final Set<String> existingRefs = elasticSearchController.existingDocuments(refs, dataStage);
+        final Set<String> existingRefs = referenceExistenceCache.existingReferences(refs, dataStage);
         references.forEach(r -> {
             if(r.getReference()!=null && !existingRefs.contains(r.getReference())){
                 r.setReference(null);
@@ -193,54 +433,216 @@ public class IndexingController {
         });
     }
 
-    private <Target extends TargetInstance> UpdateResult update(KG kg, Class<?> type, Translator<?, Target, ?> translator, int bulkSize, DataStage dataStage, Set<String> excludedIds, Function<Target, Target> instanceHandler, boolean autorelease, boolean temporary) {
-        UpdateResult updateResult = new UpdateResult();
-        translator.getQueryIds().forEach(queryId -> {
+    private static final int PIPELINE_POLL_INTERVAL_IN_SECONDS = 10;
+
+    private static class PipelineItem<T> {
+        private static final PipelineItem<?> END = new PipelineItem<>(null, null);
+
+        private final T value;
+        private final Throwable failure;
+
+        private PipelineItem(T value, Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+
+        private static <T> PipelineItem<T> of(T value) {
+            return new PipelineItem<>(value, null);
+        }
+
+        private static <T> PipelineItem<T> failed(Throwable failure) {
+            return new PipelineItem<>(null, failure);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> PipelineItem<T> end() {
+            return (PipelineItem<T>) END;
+        }
+
+        private boolean isEnd() {
+            return this == END;
+        }
+    }
+
+    private <Source> void fetchPages(KG kg, Translator<Source, ?, ? extends ResultsOfKG<Source>> translator, String queryId, int bulkSize, DataStage dataStage, BlockingQueue<PipelineItem<ResultsOfKG<Source>>> output) throws InterruptedException {
+        try {
             boolean hasMore = true;
             int from = 0;
             while (hasMore) {
-                TargetInstancesResult<Target> result = translationController.translateToTargetInstances(kg, translator, queryId, dataStage, from, bulkSize);
-                if(result.getErrors()!=null){
-                    updateResult.errors.putAll(result.getErrors());
+                final int pageFrom = from;
+                final int pageSize = adaptiveBulkSizing.getPageSize(translator.getSourceType(), bulkSize);
+                final ResultsOfKG<Source> page = withPermit(kgPermits, () -> {
+                    final long start = System.currentTimeMillis();
+                    final ResultsOfKG<Source> result = translationController.fetchSourceInstances(kg, translator, queryId, dataStage, pageFrom, pageSize);
+                    adaptiveBulkSizing.onPageFetched(translator.getSourceType(), System.currentTimeMillis() - start);
+                    return result;
+                });
+                output.put(PipelineItem.of(page));
+                from = page.getFrom() + page.getSize();
+                hasMore = from < page.getTotal();
+            }
+            output.put(PipelineItem.end());
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Throwable e) {
+            //Whatever goes wrong, the downstream stage has to be informed - it would wait for the next page otherwise
+            output.put(PipelineItem.failed(e));
+        }
+    }
+
+    private <Source, Target extends TargetInstance> void fetchAndTranslatePagesStreamed(KGv3 kg, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, String queryId, int bulkSize, DataStage dataStage, BlockingQueue<PipelineItem<TargetInstancesResult<Target>>> output) throws InterruptedException {
+        try {
+            boolean hasMore = true;
+            int from = 0;
+            while (hasMore) {
+                final int pageFrom = from;
+                final int pageSize = adaptiveBulkSizing.getPageSize(translator.getSourceType(), bulkSize);
+                final TargetInstancesResult<Target> page = withPermit(kgPermits, () -> {
+                    final long start = System.currentTimeMillis();
+                    final TargetInstancesResult<Target> result = translationController.translateToTargetInstancesStreamed(kg, translator, queryId, dataStage, pageFrom, pageSize);
+                    //The translation happens while streaming - only the time spent on the transfer is attributed to the KG
+                    final long fetchDuration = result.getFetchDurationInMs() != null ? result.getFetchDurationInMs() : System.currentTimeMillis() - start;
+                    adaptiveBulkSizing.onPageFetched(translator.getSourceType(), fetchDuration, result.getFetchedBytes());
+                    return result;
+                });
+                output.put(PipelineItem.of(page));
+                from = page.getFrom() + page.getSize();
+                hasMore = from < page.getTotal();
+            }
+            output.put(PipelineItem.end());
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Throwable e) {
+            //Whatever goes wrong, the downstream stage has to be informed - it would wait for the next page otherwise
+            output.put(PipelineItem.failed(e));
+        }
+    }
+
+    private <Source, Target extends TargetInstance> void translatePages(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, DataStage dataStage, BlockingQueue<PipelineItem<ResultsOfKG<Source>>> input, BlockingQueue<PipelineItem<TargetInstancesResult<Target>>> output) throws InterruptedException {
+        PipelineItem<ResultsOfKG<Source>> page;
+        while (!(page = input.take()).isEnd()) {
+            if (page.failure != null) {
+                output.put(PipelineItem.failed(page.failure));
+                return;
+            }
+            final TargetInstancesResult<Target> translated;
+            try {
+                translated = translationController.translateSourceInstances(translator, page.value, dataStage);
+            } catch (Throwable e) {
+                output.put(PipelineItem.failed(e));
+                return;
+            }
+            output.put(PipelineItem.of(translated));
+        }
+        output.put(PipelineItem.end());
+    }
+
+    private <Target extends TargetInstance> void writePage(TargetInstancesResult<Target> result, UpdateResult updateResult, Class<?> type, DataStage dataStage, Set<String> excludedIds, Function<Target, Target> instanceHandler, boolean autorelease, boolean temporary) {
+        if (result.getErrors() != null) {
+            updateResult.errors.putAll(result.getErrors());
+        }
+        List<Target> instances = result.getTargetInstances();
+        if (instances != null) {
+            List<Target> searchableInstances = new ArrayList<>();
+            List<Target> nonSearchableInstances = new ArrayList<>();
+            final List<Target> processableInstances = instances.stream().filter(instance -> !excludedIds.contains(instance.getId())).collect(Collectors.toList());
+            //The references are resolved in the writing stage, so the previous page is already written when doing so.
+            withPermit(esPermits, () -> clearNonResolvableReferences(processableInstances, dataStage));
+            processableInstances.forEach(instance -> {
+                Target handledInstance = instanceHandler != null ? instanceHandler.apply(instance) : instance;
+                updateResult.handledIdentifiers.add(handledInstance.getId());
+                updateResult.handledIdentifiers.addAll(handledInstance.getIdentifier());
+                if (handledInstance.isSearchableInstance()) {
+                    updateResult.searchableIds.add(handledInstance.getId());
+                    searchableInstances.add(handledInstance);
+                } else {
+                    updateResult.nonSearchableIds.add(handledInstance.getId());
+                    nonSearchableInstances.add(handledInstance);
                 }
-                List<Target> instances = result.getTargetInstances();
-                if (instances != null) {
-                    List<Target> searchableInstances = new ArrayList<>();
-                    List<Target> nonSearchableInstances = new ArrayList<>();
-                    final List<Target> processableInstances = instances.stream().filter(instance -> !excludedIds.contains(instance.getId())).collect(Collectors.toList());
-                    clearNonResolvableReferences(processableInstances, dataStage);
-                    processableInstances.forEach(instance -> {
-                        Target handledInstance = instanceHandler!=null ? instanceHandler.apply(instance) : instance;
-                        updateResult.handledIdentifiers.add(handledInstance.getId());
-                        updateResult.handledIdentifiers.addAll(handledInstance.getIdentifier());
-                        if (handledInstance.isSearchableInstance()) {
-                            updateResult.searchableIds.add(handledInstance.getId());
-                            searchableInstances.add(handledInstance);
-                        } else {
-                            updateResult.nonSearchableIds.add(handledInstance.getId());
-                            nonSearchableInstances.add(handledInstance);
-                        }
-                    });
-                    if (!CollectionUtils.isEmpty(searchableInstances)) {
-                        elasticSearchController.updateSearchIndex(searchableInstances, type, dataStage, temporary);
-                    }
-                    if (!CollectionUtils.isEmpty(nonSearchableInstances)) {
-                        if(autorelease){
-                            elasticSearchController.updateAutoReleasedIndex(nonSearchableInstances, dataStage, type, temporary);
-                        }
-                        else {
-                            elasticSearchController.updateIdentifiersIndex(nonSearchableInstances, dataStage);
-                        }
+            });
+            if (!CollectionUtils.isEmpty(searchableInstances)) {
+                final ErrorReport errors = withPermits(esPermits, esPermitsPerWrite, () -> elasticSearchController.updateSearchIndex(searchableInstances, type, dataStage, temporary));
+                updateResult.errors.putAll(errors);
+                searchableInstances.stream().filter(i -> !errors.containsKey(i.getId())).forEach(i -> referenceExistenceCache.add(dataStage, i.getIdentifier()));
+            }
+            if (!CollectionUtils.isEmpty(nonSearchableInstances)) {
+                final ErrorReport errors = withPermits(esPermits, esPermitsPerWrite, () -> autorelease ? elasticSearchController.updateAutoReleasedIndex(nonSearchableInstances, dataStage, type, temporary) : elasticSearchController.updateIdentifiersIndex(nonSearchableInstances, type, dataStage));
+                updateResult.errors.putAll(errors);
+                nonSearchableInstances.stream().filter(i -> !errors.containsKey(i.getId())).forEach(i -> referenceExistenceCache.add(dataStage, i.getIdentifier()));
+            }
+        }
+    }
+
+    /**
+     * Fetches, translates and writes the pages of the given translator in overlapping stages: While page N is written to
+     * elasticsearch, page N+1 is translated and page N+2 is fetched from the KG. The stages are connected by bounded queues
+     * so the faster stages are blocked as soon as they are {@link #pipelineQueueDepth} pages ahead of the slower ones.
+     */
+    private <Source, Target extends TargetInstance> UpdateResult update(KG kg, Class<?> type, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, int bulkSize, DataStage dataStage, Set<String> excludedIds, Function<Target, Target> instanceHandler, boolean autorelease, boolean temporary, SortedIdSet searchableIds, SortedIdSet nonSearchableIds) {
+        UpdateResult updateResult = new UpdateResult(searchableIds, nonSearchableIds);
+        for (String queryId : translator.getQueryIds()) {
+            final BlockingQueue<PipelineItem<TargetInstancesResult<Target>>> translatedPages = new ArrayBlockingQueue<>(pipelineQueueDepth);
+            final Future<?> fetching;
+            final Future<?> translating;
+            if (streaming && kg instanceof KGv3) {
+                //In streaming mode, the instances are translated while the page is parsed - there is no separate translation stage.
+                fetching = fetchExecutor.submit(() -> {
+                    fetchAndTranslatePagesStreamed((KGv3) kg, translator, queryId, bulkSize, dataStage, translatedPages);
+                    return null;
+                });
+                translating = CompletableFuture.completedFuture(null);
+            } else {
+                final BlockingQueue<PipelineItem<ResultsOfKG<Source>>> fetchedPages = new ArrayBlockingQueue<>(pipelineQueueDepth);
+                fetching = fetchExecutor.submit(() -> {
+                    fetchPages(kg, translator, queryId, bulkSize, dataStage, fetchedPages);
+                    return null;
+                });
+                translating = translateExecutor.submit(() -> {
+                    translatePages(translator, dataStage, fetchedPages, translatedPages);
+                    return null;
+                });
+            }
+            try {
+                PipelineItem<TargetInstancesResult<Target>> page;
+                while (!(page = nextPage(translatedPages, fetching, translating)).isEnd()) {
+                    if (page.failure instanceof RuntimeException) {
+                        throw (RuntimeException) page.failure;
+                    } else if (page.failure instanceof Error) {
+                        throw (Error) page.failure;
+                    } else if (page.failure != null) {
+                        throw new IllegalStateException(String.format("Indexing of %s failed", translator.getSourceType().getSimpleName()), page.failure);
                     }
+                    writePage(page.value, updateResult, type, dataStage, excludedIds, instanceHandler, autorelease, temporary);
                 }
-                from = result.getFrom() + result.getSize();
-                hasMore = from < result.getTotal();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(String.format("Interrupted while indexing %s", translator.getSourceType().getSimpleName()), e);
+            } finally {
+                //Makes sure the upstream stages don't remain blocked if the writing stage has failed
+                fetching.cancel(true);
+                translating.cancel(true);
             }
-        });
+        }
         return updateResult;
     }
 
 
+    /**
+     * Waits for the next page of the upstream stages - if they have ended without handing over the end of the pages, the
+     * pipeline fails instead of waiting forever.
+     */
+    private static <T> PipelineItem<T> nextPage(BlockingQueue<PipelineItem<T>> pages, Future<?> fetching, Future<?> translating) throws InterruptedException {
+        while (true) {
+            final PipelineItem<T> page = pages.poll(PIPELINE_POLL_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+            if (page != null) {
+                return page;
+            }
+            if (fetching.isDone() && translating.isDone() && pages.isEmpty()) {
+                return PipelineItem.failed(new IllegalStateException("The upstream stages of the indexing pipeline have ended unexpectedly"));
+            }
+        }
+    }
+
     public void recreateIdentifiersIndex(DataStage dataStage) {
         Map<String, Object> mapping = mappingController.generateIdentifierMapping();
         Map<String, Object> mappingResult = Map.of("mappings", mapping);
@@ -248,9 +650,8 @@ public class IndexingController {
     }
 
 
-    public void reindexTemporaryToReal(DataStage dataStage, Class<? extends TargetInstance> clazz, boolean autorelease){
-        recreateIndex(dataStage, clazz, autorelease, false);
-        elasticSearchController.reindexTemporaryToRealIndex(clazz, dataStage, autorelease);
+    public void promoteTemporaryToReal(DataStage dataStage, Class<? extends TargetInstance> clazz, boolean autorelease){
+        elasticSearchController.promoteTemporaryIndex(clazz, dataStage, autorelease);
     }
 
     public void recreateIndex(DataStage dataStage, Class<? extends TargetInstance> clazz, boolean autorelease, boolean temporary){
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.indexing;
+
+import eu.ebrains.kg.search.model.TranslatorModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the indexing of independent target types concurrently on a bounded worker pool. Anything which needs to happen
+ * before or after the types are indexed (e.g. recreating the identifiers index) has to be done by the caller.
+ * <p>
+ * Every indexing of a type has to be run by the scheduler (even if it is a single one) - the stage pools of the
+ * {@link IndexingController} are sized for at most one pipeline per worker.
+ */
+@Component
+public class IndexingScheduler {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ExecutorService executor;
+
+    public IndexingScheduler(@Value("${indexing.parallelism:4}") int parallelism) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the non-null results of the task for every model - in the order of the given models.
+     */
+    public <T> List<T> runForAll(List<TranslatorModel<?, ?, ?, ?>> models, Function<TranslatorModel<?, ?, ?, ?>, T> task) {
+        final List<Future<T>> futures = models.stream().map(m -> executor.submit(() -> task.apply(m))).collect(Collectors.toList());
+        List<T> results = new ArrayList<>();
+        RuntimeException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while waiting for the indexing of the types", e);
+            } catch (ExecutionException e) {
+                logger.error(String.format("Indexing of %s failed", models.get(i).getTargetClass().getSimpleName()), e.getCause());
+                //We keep waiting for the other types, so none of them is left running when we report the first failure
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.indexing;
+
+import eu.ebrains.kg.search.controller.elasticsearch.ElasticSearchController;
+import eu.ebrains.kg.search.model.DataStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Keeps the identifiers of all documents of a stage in memory for the duration of an indexing run, so the references
+ * of the indexed instances can be resolved without querying elasticsearch for every page. The identifiers are loaded
+ * once when the run is opened, extended with every document written and reduced by every document removed during the run.
+ */
+@Component
+public class ReferenceExistenceCache {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ElasticSearchController elasticSearchController;
+
+    private final Map<DataStage, Run> runs = new EnumMap<>(DataStage.class);
+
+    public ReferenceExistenceCache(ElasticSearchController elasticSearchController) {
+        this.elasticSearchController = elasticSearchController;
+    }
+
+    private static class Run {
+        private final CompletableFuture<Set<String>> identifiers = new CompletableFuture<>();
+        private int users = 1;
+
+        private Set<String> getIdentifiers() {
+            return identifiers.join();
+        }
+    }
+
+    /**
+     * Starts a run for the given stage - or joins the one which is already running. The identifiers are loaded outside
+     * of the lock (so other stages are not blocked) - concurrent runs of the same stage wait for them though.
+     */
+    public void open(DataStage dataStage) {
+        final Run run;
+        final boolean load;
+        synchronized (runs) {
+            final Run existingRun = runs.get(dataStage);
+            load = existingRun == null;
+            if (load) {
+                run = new Run();
+                runs.put(dataStage, run);
+            } else {
+                run = existingRun;
+                run.users++;
+            }
+        }
+        if (load) {
+            try {
+                final long start = System.currentTimeMillis();
+                //The identifiers are added by the concurrently indexed types
+                final Set<String> identifiers = Collections.synchronizedSet(elasticSearchController.getAllIdentifiers(dataStage));
+                logger.info(String.format("Loaded %d identifiers of stage %s in %dms", identifiers.size(), dataStage, System.currentTimeMillis() - start));
+                run.identifiers.complete(identifiers);
+            } catch (RuntimeException e) {
+                synchronized (runs) {
+                    runs.remove(dataStage, run);
+                }
+                run.identifiers.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            try {
+                run.getIdentifiers();
+            } catch (CompletionException e) {
+                //The loading run has failed (and removed the run already) - we try on our own.
+                open(dataStage);
+            }
+        }
+    }
+
+    public void close(DataStage dataStage) {
+        synchronized (runs) {
+            final Run run = runs.get(dataStage);
+            if (run != null && --run.users == 0) {
+                runs.remove(dataStage);
+            }
+        }
+    }
+
+    private Run getRun(DataStage dataStage) {
+        synchronized (runs) {
+            return runs.get(dataStage);
+        }
+    }
+
+    public void add(DataStage dataStage, Collection<String> identifiers) {
+        final Run run = getRun(dataStage);
+        if (run != null) {
+            run.getIdentifiers().addAll(identifiers);
+        }
+    }
+
+    /**
+     * Forgets the identifiers of documents which have been removed.
+     */
+    public void remove(DataStage dataStage, Collection<String> identifiers) {
+        final Run run = getRun(dataStage);
+        if (run != null) {
+            run.getIdentifiers().removeAll(identifiers);
+        }
+    }
+
+    /**
+     * @return the references for which a document exists - elasticsearch is only asked if no run is open for the stage.
+     */
+    public Set<String> existingReferences(List<String> references, DataStage dataStage) {
+        final Run run = getRun(dataStage);
+        if (run == null || !run.identifiers.isDone() || run.identifiers.isCompletedExceptionally()) {
+            return elasticSearchController.existingDocuments(references, dataStage);
+        }
+        final Set<String> identifiers = run.getIdentifiers();
+        Set<String> result = new HashSet<>();
+        references.forEach(r -> {
+            if (identifiers.contains(r)) {
+                result.add(r);
+            }
+        });
+        return result;
+    }
+}
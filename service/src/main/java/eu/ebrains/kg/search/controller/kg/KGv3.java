@@ -24,20 +24,36 @@
 package eu.ebrains.kg.search.controller.kg;
 
 import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
 import eu.ebrains.kg.search.services.KGV3ServiceClient;
+import eu.ebrains.kg.search.utils.IdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 @Component
 public class KGv3 implements KG {
+    private static final int TYPE_BATCH_SIZE = 100;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
     private final KGV3ServiceClient kgServiceClient;
+    private final Map<String, List<String>> typeCache;
 
-    public KGv3(KGV3ServiceClient kgServiceClient) {
+    public KGv3(KGV3ServiceClient kgServiceClient, @Value("${kg.typeCache.size:10000}") int typeCacheSize) {
         this.kgServiceClient = kgServiceClient;
+        //The types of an instance don't change - we therefore keep the recently used ones in memory
+        this.typeCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > typeCacheSize;
+            }
+        });
     }
 
     @Override
@@ -45,18 +61,100 @@ public class KGv3 implements KG {
         return kgServiceClient.executeQueryForIndexing(clazz, dataStage, queryId, from, size);
     }
 
+    /**
+     * Queries a page and hands the source instances to the consumer while the response is still being parsed.
+     */
+    public <T> ResultsOfKGv3<T> executeQueryStreamed(Class<T> sourceType, DataStage dataStage, String queryId, int from, int size, Consumer<T> consumer) {
+        return kgServiceClient.executeQueryForIndexingStreamed(sourceType, dataStage, queryId, from, size, consumer);
+    }
+
     @Override
     public <T> T executeQueryForInstance(Class<T> clazz, DataStage dataStage, String queryId, String id, boolean asServiceAccount) {
         return kgServiceClient.executeQueryForInstance(clazz, dataStage, queryId, id, asServiceAccount);
     }
 
-    @SuppressWarnings("java:S3740") // we keep the generics intentionally
     public List<String> getTypesOfInstance(String instanceId, DataStage stage, boolean asServiceAccount) {
-        final Map instance = kgServiceClient.getInstance(instanceId, stage, asServiceAccount); 
+        return getTypesOfInstances(Collections.singletonList(instanceId), stage, asServiceAccount).getOrDefault(instanceId, Collections.emptyList());
+    }
+
+    /**
+     * Resolves the types of the given instances - the ones which are not known yet are read in batches.
+     *
+     * @return the types by instance id - instances which can't be read are omitted.
+     */
+    public Map<String, List<String>> getTypesOfInstances(Collection<String> instanceIds, DataStage stage, boolean asServiceAccount) {
+        Map<String, List<String>> result = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String instanceId : new LinkedHashSet<>(instanceIds)) {
+            final List<String> types = typeCache.get(getTypeCacheKey(instanceId, stage, asServiceAccount));
+            if (types != null) {
+                result.put(instanceId, types);
+            } else {
+                unknown.add(instanceId);
+            }
+        }
+        for (int i = 0; i < unknown.size(); i += TYPE_BATCH_SIZE) {
+            final List<String> batch = unknown.subList(i, Math.min(unknown.size(), i + TYPE_BATCH_SIZE));
+            Map<String, List<String>> types = batch.size() > 1 ? readTypesInBatch(batch, stage, asServiceAccount) : new HashMap<>();
+            //Single instances and those not delivered by the batch (e.g. because of a missing permission) are read one by one
+            batch.stream().filter(id -> !types.containsKey(id)).forEach(id -> {
+                try {
+                    final List<String> t = readTypes(id, stage, asServiceAccount);
+                    if (!t.isEmpty()) {
+                        types.put(id, t);
+                    }
+                } catch (WebClientResponseException e) {
+                    //If a single instance is requested, the caller shall know why it couldn't be read
+                    if (unknown.size() == 1) {
+                        throw e;
+                    }
+                    logger.debug(String.format("Was not able to read the types of instance %s", id), e);
+                }
+            });
+            types.forEach((id, t) -> typeCache.put(getTypeCacheKey(id, stage, asServiceAccount), t));
+            result.putAll(types);
+        }
+        return result;
+    }
+
+    /**
+     * The instances readable by the service account and by the user differ - their results are therefore never shared.
+     */
+    private static String getTypeCacheKey(String instanceId, DataStage stage, boolean asServiceAccount) {
+        return String.format("%s:%s:%s", asServiceAccount ? "serviceAccount" : "user", stage, instanceId);
+    }
+
+    private Map<String, List<String>> readTypesInBatch(List<String> instanceIds, DataStage stage, boolean asServiceAccount) {
+        Map<String, List<String>> result = new HashMap<>();
+        final Map<String, String> requestedIdsByUUID = instanceIds.stream().collect(Collectors.toMap(IdUtils::getUUID, id -> id, (a, b) -> a));
+        final Map<String, Object> response;
+        try {
+            response = kgServiceClient.getInstancesByIds(instanceIds, stage, asServiceAccount);
+        } catch (WebClientResponseException e) {
+            logger.warn(String.format("Was not able to read the types of %d instances in a batch - reading them one by one", instanceIds.size()), e);
+            return result;
+        }
+        if (response != null && response.get("data") instanceof Map) {
+            ((Map<?, ?>) response.get("data")).forEach((id, instance) -> {
+                final String requestedId = requestedIdsByUUID.get(IdUtils.getUUID((String) id));
+                final Object data = instance instanceof Map ? ((Map<?, ?>) instance).get("data") : null;
+                if (requestedId != null && data instanceof Map) {
+                    final List<String> types = getType(((Map<?, ?>) data).get("@type"));
+                    if (!types.isEmpty()) {
+                        result.put(requestedId, types);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private List<String> readTypes(String instanceId, DataStage stage, boolean asServiceAccount) {
+        final Map<String, Object> instance = kgServiceClient.getInstance(instanceId, stage, asServiceAccount);
         if (instance != null) {
             final Object data = instance.get("data");
             if (data instanceof Map) {
-                final Object type = ((Map) data).get("@type");
+                final Object type = ((Map<?, ?>) data).get("@type");
                 return getType(type);
             }
         }
@@ -68,7 +166,7 @@ public class KGv3 implements KG {
             return Collections.singletonList((String) type);
         }
         if (type instanceof List) {
-            return (List<String>) type;
+            return ((List<?>) type).stream().filter(String.class::isInstance).map(String.class::cast).collect(Collectors.toList());
         }
         return Collections.emptyList();
     }
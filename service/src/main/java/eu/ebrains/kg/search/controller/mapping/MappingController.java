@@ -42,6 +42,11 @@ public class MappingController {
     private final static String KEYWORD = "keyword";
     private final static String PROPERTIES = "properties";
 
+    /**
+     * The fingerprint of the indexed document - only kept as doc value so it doesn't show up in the source of the documents.
+     */
+    public final static String FINGERPRINT = "@fingerprint";
+
     public MappingController(MetaModelUtils utils) {
         this.utils = utils;
     }
@@ -55,6 +60,7 @@ public class MappingController {
         properties.put("type", Map.of(PROPERTIES, Map.of("value", Map.of("type", KEYWORD))));
         timestamp.put("type", "date");
         properties.put("@timestamp", timestamp);
+        addFingerprint(mapping, properties);
         mapping.put(PROPERTIES, properties);
         mapping.put("dynamic", false);
         logger.info(String.format("Mapping created: %s", mapping));
@@ -72,10 +78,16 @@ public class MappingController {
         properties.put("type", Map.of("type", KEYWORD));
         properties.put("@timestamp", timestamp);
         properties.putAll(handleType(clazz, null));
+        addFingerprint(mapping, properties);
         logger.info(String.format("Mapping created: %s", mapping));
         return mapping;
     }
 
+    private void addFingerprint(Map<String, Object> mapping, Map<String, Object> properties) {
+        properties.put(FINGERPRINT, Map.of("type", KEYWORD, "index", false));
+        mapping.put("_source", Map.of("excludes", Collections.singletonList(FINGERPRINT)));
+    }
+
     private Map<String, Object> handleType(Type type, ElasticSearchInfo parentInfo) {
         Map<String, Object> properties = new LinkedHashMap<>();
         List<MetaModelUtils.FieldWithGenericTypeInfo> allFields = utils.getAllFields(type);
@@ -1,5 +1,6 @@
 package eu.ebrains.kg.search.controller.queries;
 
+import eu.ebrains.kg.search.controller.indexing.ChangeFeed;
 import eu.ebrains.kg.search.model.TranslatorModel;
 import eu.ebrains.kg.search.services.KGV3ServiceClient;
 import org.apache.commons.io.IOUtils;
@@ -38,7 +39,9 @@ public class QueryController {
                     logger.info(String.format("Uploading query %s from file %s for type %s", queryId, filename, semanticType));
                     Map<String, Object> properties = new HashMap<>();
                     properties.put("type", semanticType);
-                    kgv3ServiceClient.uploadQuery(queryId, StringSubstitutor.replace(payload, properties));
+                    final String query = StringSubstitutor.replace(payload, properties);
+                    kgv3ServiceClient.uploadQuery(queryId, query);
+                    kgv3ServiceClient.uploadQuery(ChangeFeed.getChangesQueryId(queryId), ChangeFeed.createChangesQuery(query));
                 }
             }
             catch (IOException e){
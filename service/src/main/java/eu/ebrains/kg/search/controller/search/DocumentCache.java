@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.search;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.target.elasticsearch.ElasticSearchDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the serialized documents of the detail pages, so popular instances are served without a roundtrip to
+ * elasticsearch. The entries of a stage are outdated by bumping its generation after indexing. Since the generation is
+ * only bumped on the instance which has run the indexing, the entries additionally expire after a short time (see
+ * ehcache.xml) - this bounds the staleness on the other replicas. Documents which don't exist are not cached.
+ */
+@Component
+public class DocumentCache {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final boolean enabled;
+    private final Map<DataStage, Cache> caches = new EnumMap<>(DataStage.class);
+    private final Map<DataStage, AtomicLong> generations = new EnumMap<>(DataStage.class);
+    private final Map<DataStage, LongAdder> hits = new EnumMap<>(DataStage.class);
+    private final Map<DataStage, LongAdder> misses = new EnumMap<>(DataStage.class);
+
+    public DocumentCache(CacheManager cacheManager, @Value("${search.documentCache.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        for (DataStage stage : DataStage.values()) {
+            final Cache cache = cacheManager.getCache(stage == DataStage.RELEASED ? "releasedDocuments" : "inProgressDocuments");
+            if (cache != null) {
+                caches.put(stage, cache);
+            }
+            generations.put(stage, new AtomicLong());
+            hits.put(stage, new LongAdder());
+            misses.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * @return the serialized document of the given identifier - loaded with the given supplier if it isn't cached
+     */
+    public byte[] getDocument(DataStage stage, String identifier, Supplier<ElasticSearchDocument> loader) {
+        final Cache cache = enabled ? caches.get(stage) : null;
+        if (cache == null) {
+            return serialize(loader.get());
+        }
+        final String key = generations.get(stage).get() + ":" + identifier;
+        byte[] document = cache.get(key, byte[].class);
+        if (document != null) {
+            hits.get(stage).increment();
+            return document;
+        }
+        misses.get(stage).increment();
+        final ElasticSearchDocument loaded = loader.get();
+        document = serialize(loaded);
+        //A not found placeholder would hide the document until the entry expires if it is indexed in the meantime
+        if (loaded != null && loaded.getSource() != null) {
+            cache.put(key, document);
+        }
+        return document;
+    }
+
+    private byte[] serialize(ElasticSearchDocument document) {
+        try {
+            return objectMapper.writeValueAsBytes(document);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes all cached documents of the given stage outdated - to be called whenever its indices have been changed.
+     */
+    public void invalidate(DataStage stage) {
+        generations.get(stage).incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        for (DataStage stage : DataStage.values()) {
+            stats.put(stage.name(), Map.of("generation", generations.get(stage).get(), "hits", hits.get(stage).sum(), "misses", misses.get(stage).sum()));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Extends the terms aggregations inside of nested aggregations of a search request by a reverse nested aggregation, so
+ * the response reports the number of parent documents for every bucket.
+ */
+final class NestedAggregations {
+    private static final String NESTED = "nested";
+    private static final String AGGS = "aggs";
+    private static final String TERMS = "terms";
+
+    private NestedAggregations() {
+    }
+
+    /**
+     * Walks the tree of the request once (without recursion and without building any paths) - the terms aggregations
+     * are only extended after the walk, so the added aggregations are not visited.
+     */
+    static void addReverseNested(JsonNode query, JsonNode reverseNestedAggregation) {
+        final List<ObjectNode> termsAggregations = new ArrayList<>();
+        final Deque<JsonNode> stack = new ArrayDeque<>();
+        stack.push(query);
+        while (!stack.isEmpty()) {
+            final JsonNode node = stack.pop();
+            if (node.isObject()) {
+                if (node.has(NESTED) && node.path(AGGS).isObject()) {
+                    for (Iterator<JsonNode> aggregations = node.get(AGGS).elements(); aggregations.hasNext(); ) {
+                        final JsonNode aggregation = aggregations.next();
+                        if (aggregation.has(TERMS)) {
+                            termsAggregations.add((ObjectNode) aggregation);
+                        }
+                    }
+                }
+                node.elements().forEachRemaining(stack::push);
+            } else if (node.isArray()) {
+                node.elements().forEachRemaining(stack::push);
+            }
+        }
+        termsAggregations.forEach(aggregation -> aggregation.set(AGGS, reverseNestedAggregation));
+    }
+}
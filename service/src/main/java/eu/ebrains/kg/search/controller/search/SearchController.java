@@ -23,7 +23,10 @@
 
 package eu.ebrains.kg.search.controller.search;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -43,9 +46,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.ByteArrayOutputStream;
 import java.security.Principal;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -65,11 +70,15 @@ public class SearchController {
     private final MetaModelUtils utils;
     private final UserInfoRoles userInfoRoles;
     private final static String TOTAL = "total";
+    private final static String AGGREGATIONS = "aggregations";
 
-    public SearchController(ESServiceClient esServiceClient, MetaModelUtils utils, UserInfoRoles userInfoRoles) throws JsonProcessingException {
+    private final SearchResultCache searchResultCache;
+
+    public SearchController(ESServiceClient esServiceClient, MetaModelUtils utils, UserInfoRoles userInfoRoles, SearchResultCache searchResultCache) throws JsonProcessingException {
         this.esServiceClient = esServiceClient;
         this.utils = utils;
         this.userInfoRoles = userInfoRoles;
+        this.searchResultCache = searchResultCache;
     }
 
     public boolean isInInProgressRole(Principal principal) {
@@ -150,87 +159,111 @@ public class SearchController {
     }
 
 
-    public JsonNode getResult(String payload, DataStage dataStage) throws JsonProcessingException {
-        String index = ESHelper.getIndexesForSearch(dataStage);
-        JsonNode jsonNode = adaptEsQueryForNestedDocument(payload);
-        String result = esServiceClient.searchDocuments(index, jsonNode);
-        JsonNode resultJson = objectMapper.readTree(result);
-        return updateEsResponseWithNestedDocument(resultJson);
-    }
-
-    private JsonNode adaptEsQueryForNestedDocument(String payload) throws JsonProcessingException {
-        JsonNode jsonNode = objectMapper.readTree(payload);
-        List<String> paths = findPathForKey(jsonNode, "", "nested");
-        if (!CollectionUtils.isEmpty(paths)) {
-            paths.forEach(path -> {
-                String aggsPath = String.format("%s/aggs", path);
-                JsonNode aggs = jsonNode.at(aggsPath);
-                if (!aggs.isEmpty()) {
-                    aggs.fields().forEachRemaining(i -> {
-                        if (i.getValue().has("terms")) {
-                            ((ObjectNode) i.getValue()).set("aggs", parentDocCountObj);
-                        }
-                    });
+    /**
+     * Executes the search without blocking the calling thread. The elasticsearch response is forwarded as raw bytes:
+     * only the aggregations are materialized to fold the nested parent counts, the hits are copied token by token. The
+     * rewriting is CPU bound for large responses - it is therefore moved off the event loop of the http client.
+     */
+    public Mono<byte[]> getResult(String payload, DataStage dataStage) {
+        try {
+            String index = ESHelper.getIndexesForSearch(dataStage);
+            JsonNode jsonNode = objectMapper.readTree(payload);
+            String cacheKey = dataStage == DataStage.RELEASED ? searchResultCache.getKey(jsonNode) : null;
+            if (cacheKey != null) {
+                byte[] cached = searchResultCache.get(cacheKey);
+                if (cached != null) {
+                    return Mono.just(cached);
                 }
-            });
+            }
+            NestedAggregations.addReverseNested(jsonNode, parentDocCountObj);
+            Mono<byte[]> result = esServiceClient.searchDocuments(index, jsonNode)
+                    .publishOn(Schedulers.boundedElastic())
+                    .map(this::updateEsResponseWithNestedDocument);
+            return cacheKey == null ? result : result.doOnNext(r -> searchResultCache.put(cacheKey, r));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
         }
-        return jsonNode;
     }
 
-    private JsonNode updateEsResponseWithNestedDocument(JsonNode jsonSrc) {
-        try {
-            JsonNode json = jsonSrc.deepCopy();
-            List<String> innerList = findPathForKey(json, "", parentCountLabel);
-            List<String> buckets = innerList.stream().map(this::trimLastSegment)
-                    .distinct()
-                    .collect(Collectors.toList());
-
-            buckets.forEach(path -> {
-                ArrayNode arrayNode = (ArrayNode) json.at(path);
-                int sum = 0;
-                for (int i = 0; i < arrayNode.size(); i++) {
-                    ObjectNode objectNode = (ObjectNode) arrayNode.get(i);
-                    int count = objectNode.at(String.format("/%s/%s", parentCountLabel, docCountLabel)).asInt();
-                    sum += count;
-                    objectNode.remove(parentCountLabel);
-                    objectNode.set(docCountLabel, new IntNode(count));
+    private byte[] updateEsResponseWithNestedDocument(byte[] response) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(response.length);
+        try (JsonParser parser = objectMapper.getFactory().createParser(response);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && AGGREGATIONS.equals(parser.getCurrentName()) && parser.getParsingContext().getParent().inRoot()) {
+                    generator.copyCurrentEvent(parser);
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        generator.writeStartObject();
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            generator.writeFieldName(parser.getCurrentName());
+                            parser.nextToken();
+                            JsonNode aggregation = objectMapper.readTree(parser);
+                            updateNestedDocCounts(aggregation);
+                            objectMapper.writeTree(generator, aggregation);
+                        }
+                        generator.writeEndObject();
+                    } else {
+                        generator.copyCurrentStructure(parser);
+                    }
+                } else {
+                    generator.copyCurrentEvent(parser);
                 }
-
-                String inner = trimLastSegment(trimLastSegment(path)); // Remove everything after slash(/) before last
-                ObjectNode innerObject = (ObjectNode) json.at(inner);
-                innerObject.set(docCountLabel, new IntNode(sum));
-            });
-            return json;
+            }
         } catch (Exception e) {
-            logger.info(String.format("Exception in json response update. Error:\n%s\nInput is used:\n%s", e.getMessage(), jsonSrc.asText()));
-            return jsonSrc;
+            logger.info(String.format("Exception in json response update. Error:\n%s", e.getMessage()));
+            return response;
         }
+        return out.toByteArray();
     }
 
-    private String trimLastSegment(String path) {
-        int index = path.lastIndexOf('/');
-        return path.substring(0, index);
+    /**
+     * Replaces the doc counts of the buckets of nested aggregations by their reverse nested (parent document) counts
+     * and sets the sum of them as the doc count of the nested aggregation itself.
+     */
+    private void updateNestedDocCounts(JsonNode node) {
+        if (node.isObject()) {
+            Integer sum = null;
+            for (Iterator<JsonNode> children = node.elements(); children.hasNext(); ) {
+                JsonNode child = children.next();
+                if (child.isObject()) {
+                    for (Iterator<JsonNode> grandChildren = child.elements(); grandChildren.hasNext(); ) {
+                        JsonNode grandChild = grandChildren.next();
+                        if (isBucketsWithParentCount(grandChild)) {
+                            sum = moveParentCountsToDocCounts((ArrayNode) grandChild);
+                        }
+                    }
+                }
+                updateNestedDocCounts(child);
+            }
+            if (sum != null) {
+                ((ObjectNode) node).set(docCountLabel, new IntNode(sum));
+            }
+        } else if (node.isArray()) {
+            node.forEach(this::updateNestedDocCounts);
+        }
     }
 
-    private static List<String> findPathForKey(JsonNode jsonNode, String path, String key) {
-        List<String> result = new ArrayList<>();
-        if (jsonNode.isObject()) {
-            Iterator<Map.Entry<String, JsonNode>> it = jsonNode.fields();
-            while (it.hasNext()) {
-                Map.Entry<String, JsonNode> next = it.next();
-                if (next.getKey().equals(key)) {
-                    result.add(path);
+    private boolean isBucketsWithParentCount(JsonNode node) {
+        if (node.isArray()) {
+            for (JsonNode bucket : node) {
+                if (bucket.has(parentCountLabel)) {
+                    return true;
                 }
-                String childPath = String.format("%s/%s", path, next.getKey());
-                result.addAll(findPathForKey(next.getValue(), childPath, key));
-            }
-        } else if (jsonNode.isArray()) {
-            ArrayNode arrayNode = (ArrayNode) jsonNode;
-            for (int i = 0; i < arrayNode.size(); i++) {
-                String childPath = String.format("%s/%s", path, i);
-                result.addAll(findPathForKey(arrayNode.get(i), childPath, key));
             }
         }
-        return result;
+        return false;
+    }
+
+    private int moveParentCountsToDocCounts(ArrayNode buckets) {
+        int sum = 0;
+        for (JsonNode bucket : buckets) {
+            ObjectNode objectNode = (ObjectNode) bucket;
+            int count = objectNode.path(parentCountLabel).path(docCountLabel).asInt();
+            sum += count;
+            objectNode.remove(parentCountLabel);
+            objectNode.set(docCountLabel, new IntNode(count));
+        }
+        return sum;
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.search;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the responses of the public search since the released indices only change when they are (re-)indexed.
+ * The cache keys contain the current index generation - bumping it after indexing makes all previous entries
+ * unreachable (they are evicted by ehcache eventually).
+ */
+@Component
+public class SearchResultCache {
+    private static final String CACHE_NAME = "publicSearch";
+
+    private final ObjectMapper canonicalMapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final Cache cache;
+    private final boolean enabled;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SearchResultCache(CacheManager cacheManager, @Value("${search.resultCache.enabled:true}") boolean enabled) {
+        this.cache = cacheManager.getCache(CACHE_NAME);
+        this.enabled = enabled && this.cache != null;
+    }
+
+    /**
+     * @return the key of the given search payload for the current index generation or null if the cache is disabled.
+     * Payloads which only differ in formatting or in the order of their properties share the same key.
+     */
+    public String getKey(JsonNode payload) throws JsonProcessingException {
+        if (!enabled) {
+            return null;
+        }
+        final byte[] canonical = canonicalMapper.writeValueAsBytes(canonicalMapper.treeToValue(payload, Object.class));
+        try {
+            return String.format("%d:%s", generation.get(), Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(canonical)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] get(String key) {
+        final byte[] result = cache.get(key, byte[].class);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    public void put(String key, byte[] result) {
+        cache.put(key, result);
+    }
+
+    /**
+     * Makes all cached results outdated - to be called whenever the released indices have been changed.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("generation", generation.get(), "hits", hits.sum(), "misses", misses.sum());
+    }
+}
@@ -20,67 +20,339 @@
  * (Human Brain Project SGA1, SGA2 and SGA3).
  *
  */
-
 package eu.ebrains.kg.search.controller.sitemap;
 
 import eu.ebrains.kg.search.model.DataStage;
-import eu.ebrains.kg.search.model.SitemapXML;
-import eu.ebrains.kg.search.model.target.elasticsearch.ElasticSearchDocument;
 import eu.ebrains.kg.search.services.ESServiceClient;
 import eu.ebrains.kg.search.utils.ESHelper;
+import org.apache.commons.text.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CachePut;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Writes the sitemap as gzip compressed files of at most {@link #MAX_URLS_PER_SHARD} urls and a sitemap index
+ * referring to them. The documents are distributed to the shards by the hash of their id and are sorted within a
+ * shard, so a shard file only changes (and is only replaced) if one of its documents has been added or removed. The
+ * number of shards only grows and - thanks to linear hashing - an additional shard only splits a single existing one.
+ * <p>
+ * The sitemap is regenerated after every indexing run of the replica and - since other replicas may have indexed in
+ * the meantime - as soon as it is older than "sitemap.maxAgeInHours". This happens in the background: the previous
+ * files are served until they are replaced.
+ */
 @Component
 public class SitemapController {
+    private static final int MAX_URLS_PER_SHARD = 50000;
+    //With linear hashing, the shards which haven't been split yet hold twice as many urls as the split ones
+    private static final int TARGET_URLS_PER_SHARD = MAX_URLS_PER_SHARD / 2;
+    private static final String INDEX_FILE = "sitemap.xml";
+    private static final String SHARD_FILE_PREFIX = "sitemap-";
+    private static final String SHARD_FILE_SUFFIX = ".xml.gz";
+    //Unchanged files keep their modification date - the time of the last generation is therefore kept separately
+    private static final String GENERATED_MARKER_FILE = ".generated";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Value("${kgebrains.endpoint}")
     String ebrainsUrl;
 
     private final ESServiceClient esServiceClient;
+    private final Path directory;
+    private final String sitemapUrl;
+    private final Duration maxAge;
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("sitemap-refresh-"));
+    private final AtomicBoolean refreshing = new AtomicBoolean();
 
-    public SitemapController(ESServiceClient esServiceClient) {
+    public SitemapController(ESServiceClient esServiceClient, @Value("${sitemap.directory:sitemap}") String directory, @Value("${sitemap.url:${kgebrains.endpoint}/sitemap}") String sitemapUrl, @Value("${sitemap.maxAgeInHours:24}") long maxAgeInHours) {
         this.esServiceClient = esServiceClient;
+        this.directory = Paths.get(directory);
+        this.sitemapUrl = sitemapUrl;
+        this.maxAge = Duration.ofHours(maxAgeInHours);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the sitemap index file or null if there are no documents. The sitemap is only generated on the calling
+     * thread if there is none yet - an outdated one is returned while it is regenerated in the background.
+     */
+    public Path getSitemapIndex() throws IOException {
+        final Path index = directory.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            if (isOutdated()) {
+                refreshInBackground();
+            }
+            return index;
+        }
+        updateSitemapIfOutdated();
+        return Files.exists(index) ? index : null;
+    }
+
+    private void refreshInBackground() {
+        if (refreshing.compareAndSet(false, true)) {
+            refreshExecutor.execute(() -> {
+                try {
+                    updateSitemapIfOutdated();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Was not able to refresh the sitemap", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    private synchronized void updateSitemapIfOutdated() throws IOException {
+        //Another thread could have generated the sitemap while we were waiting for the lock
+        if (isOutdated()) {
+            updateSitemap();
+        }
+    }
+
+    private boolean isOutdated() throws IOException {
+        final Path marker = directory.resolve(GENERATED_MARKER_FILE);
+        return !Files.exists(marker) || Files.getLastModifiedTime(marker).toInstant().isBefore(Instant.now().minus(maxAge));
+    }
+
+    private void markAsGenerated() throws IOException {
+        final Path marker = directory.resolve(GENERATED_MARKER_FILE);
+        if (Files.exists(marker)) {
+            Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+        } else {
+            Files.createFile(marker);
+        }
     }
 
-    @Cacheable(value = "sitemap", unless = "#result == null")
-    public SitemapXML getSitemap() {
-        return fetchSitemap();
+    /**
+     * @return the file of the given shard or null if it doesn't exist
+     */
+    public Path getSitemapShard(int shard) {
+        final Path file = directory.resolve(getShardFileName(shard));
+        return Files.exists(file) ? file : null;
     }
 
-    private SitemapXML fetchSitemap() {
-        List<SitemapXML.Url> urls = new ArrayList<>();
+    public synchronized void updateSitemap() throws IOException {
         String index = ESHelper.getIndexesForDocument(DataStage.RELEASED);
+        Files.createDirectories(directory);
+        final Path workDirectory = Files.createTempDirectory(directory, "tmp");
         try {
-            List<ElasticSearchDocument> documents = esServiceClient.getDocuments(index);
-            documents.forEach(doc -> {
-                SitemapXML.Url url = new SitemapXML.Url();
-                url.setLoc(String.format("%s/instances/%s", ebrainsUrl, doc.getId()));
-                urls.add(url);
+            final int numberOfShards;
+            try {
+                numberOfShards = Math.max(getPublishedNumberOfShards(), (int) Math.ceil(esServiceClient.count(index) / (double) TARGET_URLS_PER_SHARD));
+                partitionIds(index, workDirectory, numberOfShards);
+            } catch (WebClientResponseException e) {
+                if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+                    throw e;
+                }
+                markAsGenerated();
+                return;
+            }
+            List<Integer> shards = new ArrayList<>();
+            for (int shard = 0; shard < numberOfShards; shard++) {
+                if (writeShard(workDirectory, shard)) {
+                    shards.add(shard);
+                }
+            }
+            removeObsoleteShards(shards);
+            if (shards.isEmpty()) {
+                Files.deleteIfExists(directory.resolve(INDEX_FILE));
+            } else {
+                writeIndex(workDirectory, shards);
+            }
+            markAsGenerated();
+        } finally {
+            try (Stream<Path> files = Files.list(workDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(workDirectory);
+        }
+    }
+
+    /**
+     * Streams the ids of all released documents into one (unsorted) plain text file per shard.
+     */
+    private void partitionIds(String index, Path workDirectory, int numberOfShards) throws IOException {
+        final BufferedWriter[] writers = new BufferedWriter[numberOfShards];
+        try {
+            for (int shard = 0; shard < numberOfShards; shard++) {
+                writers[shard] = Files.newBufferedWriter(workDirectory.resolve(String.valueOf(shard)), StandardCharsets.UTF_8);
+            }
+            esServiceClient.forEachDocumentId(index, null, id -> {
+                try {
+                    final BufferedWriter writer = writers[getShard(id, numberOfShards)];
+                    writer.write(id);
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             });
-        } catch (WebClientResponseException e) {
-            if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
-                throw e;
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
             }
         }
-        if (urls.isEmpty()) {
-            return null;
+    }
+
+    /**
+     * Writes the sorted urls of the given shard and replaces the published shard file if its content has changed.
+     *
+     * @return true if the shard contains any url
+     */
+    private boolean writeShard(Path workDirectory, int shard) throws IOException {
+        final List<String> ids = Files.readAllLines(workDirectory.resolve(String.valueOf(shard)), StandardCharsets.UTF_8);
+        if (ids.isEmpty()) {
+            return false;
+        }
+        if (ids.size() > MAX_URLS_PER_SHARD) {
+            logger.warn(String.format("Sitemap shard %d contains %d urls which is more than the %d allowed", shard, ids.size(), MAX_URLS_PER_SHARD));
+        }
+        ids.sort(null);
+        final Path file = workDirectory.resolve(getShardFileName(shard));
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+            for (String id : ids) {
+                writer.write("<url><loc>");
+                writer.write(StringEscapeUtils.escapeXml10(String.format("%s/instances/%s", ebrainsUrl, id)));
+                writer.write("</loc></url>\n");
+            }
+            writer.write("</urlset>\n");
         }
-        SitemapXML sitemapXML = new SitemapXML();
-        sitemapXML.setUrl(urls);
-        return sitemapXML;
+        publish(file, directory.resolve(getShardFileName(shard)));
+        return true;
     }
 
-    @CachePut(value = "sitemap", unless = "#result == null")
-    public SitemapXML updateSitemapCache() {
-        return fetchSitemap();
+    private void writeIndex(Path workDirectory, List<Integer> shards) throws IOException {
+        final Path file = workDirectory.resolve(INDEX_FILE);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+            for (Integer shard : shards) {
+                writer.write("<sitemap><loc>");
+                writer.write(StringEscapeUtils.escapeXml10(String.format("%s/%d%s", sitemapUrl, shard, SHARD_FILE_SUFFIX)));
+                writer.write("</loc></sitemap>\n");
+            }
+            writer.write("</sitemapindex>\n");
+        }
+        publish(file, directory.resolve(INDEX_FILE));
     }
 
+    /**
+     * Moves the given file to its target unless the target already has the very same content (so unchanged files
+     * keep their modification date).
+     */
+    private void publish(Path file, Path target) throws IOException {
+        if (Files.exists(target) && Files.size(target) == Files.size(file) && Arrays.equals(digest(target), digest(file))) {
+            return;
+        }
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void removeObsoleteShards(List<Integer> shards) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                final String name = file.getFileName().toString();
+                if (name.startsWith(SHARD_FILE_PREFIX) && name.endsWith(SHARD_FILE_SUFFIX)) {
+                    final String shard = name.substring(SHARD_FILE_PREFIX.length(), name.length() - SHARD_FILE_SUFFIX.length());
+                    if (!shard.matches("\\d+") || !shards.contains(Integer.parseInt(shard))) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Linear hashing: the ids are distributed to the smallest power of two of buckets which covers the shards (by the
+     * lowest bits of their hash) - the buckets beyond the last shard fall back to the lower half. Adding the shard n
+     * therefore only moves ids from the shard n - buckets / 2 to the new one, all other shards keep their ids.
+     */
+    private static int getShard(String id, int numberOfShards) {
+        int hash = id.hashCode();
+        //Spreads the bits of the hash (murmur3 finalizer) since only the lowest ones are used
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        final int buckets = Integer.highestOneBit(Math.max(1, numberOfShards - 1)) << 1;
+        final int shard = hash & (buckets - 1);
+        return shard < numberOfShards ? shard : hash & (buckets / 2 - 1);
+    }
+
+    /**
+     * @return the number of shards of the published sitemap (at least 1) - shards are never removed to not move their ids
+     */
+    private int getPublishedNumberOfShards() throws IOException {
+        int numberOfShards = 1;
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    final Integer shard = getShardOfFile(file);
+                    if (shard != null) {
+                        numberOfShards = Math.max(numberOfShards, shard + 1);
+                    }
+                }
+            }
+        }
+        return numberOfShards;
+    }
+
+    private static Integer getShardOfFile(Path file) {
+        final String name = file.getFileName().toString();
+        if (name.startsWith(SHARD_FILE_PREFIX) && name.endsWith(SHARD_FILE_SUFFIX)) {
+            final String shard = name.substring(SHARD_FILE_PREFIX.length(), name.length() - SHARD_FILE_SUFFIX.length());
+            if (shard.matches("\\d{1,9}")) {
+                return Integer.parseInt(shard);
+            }
+        }
+        return null;
+    }
+
+    private static String getShardFileName(int shard) {
+        return String.format("%s%d%s", SHARD_FILE_PREFIX, shard, SHARD_FILE_SUFFIX);
+    }
+
+    private static byte[] digest(Path file) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(file)), MessageDigest.getInstance("SHA-256"))) {
+            final byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                //We only read the file for the digest
+            }
+            return in.getMessageDigest().digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
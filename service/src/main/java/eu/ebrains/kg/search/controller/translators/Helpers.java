@@ -37,15 +37,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.CollectionUtils;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @NoArgsConstructor(access= AccessLevel.PRIVATE)
 public class Helpers {
     private final static Logger logger = LoggerFactory.getLogger(Helpers.class);
-    private final static Map<Class<?>, Set<Field>> nonStaticTransientFields = new HashMap<>();
 
     public static String createEmbargoMessage(String type, FileRepository fileRepository, DataStage stage) {
         if (fileRepository != null && fileRepository.getIri() != null) {
@@ -207,55 +204,8 @@ public class Helpers {
     }
 
 
-    private synchronized static Set<Field> getNonStaticNonTransientFields(Class<?> clazz) {
-        Set<Field> fields = nonStaticTransientFields.get(clazz);
-        if (fields == null) {
-            fields = new HashSet<>();
-            collectAllNonStaticNonTransientFields(clazz, fields);
-            nonStaticTransientFields.put(clazz, fields);
-        }
-        return fields;
-    }
-
-
-    private static void collectAllNonStaticNonTransientFields(Class<?> clazz, Set<Field> collector) {
-        if (clazz.getCanonicalName().startsWith("eu.ebrains.kg")) {
-            final Field[] declaredFields = clazz.getDeclaredFields();
-            for (Field declaredField : declaredFields) {
-                if (!Modifier.isTransient(declaredField.getModifiers()) && !Modifier.isStatic(declaredField.getModifiers())) {
-                    collector.add(declaredField);
-                }
-            }
-            collectAllNonStaticNonTransientFields(clazz.getSuperclass(), collector);
-        }
-    }
-
     public static void collectAllTargetInternalReferences(Object obj, List<TargetInternalReference> collector) {
-        if (obj == null) {
-            return;
-        }
-        if (obj instanceof TargetInternalReference) {
-            collector.add((TargetInternalReference) obj);
-            return;
-        }
-        getNonStaticNonTransientFields(obj.getClass()).forEach(f -> {
-            try {
-                f.setAccessible(true);
-                Object value = f.get(obj);
-                if (value != null) {
-                    if (value instanceof Collection) {
-                        ((Collection<?>) value).forEach(c -> collectAllTargetInternalReferences(c, collector));
-                    } else if (value instanceof Map) {
-                        ((Map<?, ?>) value).forEach((k, v) -> collectAllTargetInternalReferences(v, collector));
-                    } else {
-                        collectAllTargetInternalReferences(value, collector);
-                    }
-                }
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        });
-
+        TargetInternalReferenceCollector.collect(obj, collector);
     }
 
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.translators;
+
+import eu.ebrains.kg.search.controller.kg.KGv3;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.TranslatorModel;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks if a referenced instance can be shown in the live preview - without translating it. The results are cached
+ * for a short time (see "referenceExistence" in ehcache.xml) and shared by all live requests - the probes are therefore
+ * run as service account so the result doesn't depend on the permissions of the user who triggered them.
+ */
+@Component
+public class ReferenceExistenceProbe {
+
+    private final KGv3 kgV3;
+
+    public ReferenceExistenceProbe(KGv3 kgV3) {
+        this.kgV3 = kgV3;
+    }
+
+    /**
+     * @return true if the referenced instance is of a type which is shown in the search and is returned by its query.
+     */
+    @Cacheable(value = "referenceExistence")
+    public boolean exists(String reference, DataStage dataStage, boolean useSourceType) {
+        final List<String> typesOfReference = kgV3.getTypesOfInstance(reference, DataStage.IN_PROGRESS, true);
+        if (typesOfReference == null) {
+            return false;
+        }
+        final TranslatorModel<?, ?, ?, ?> referenceTranslatorModel = TranslatorModel.MODELS.stream().filter(m -> m.getV3translator() != null && m.getV3translator().semanticTypes().stream().anyMatch(typesOfReference::contains)).findFirst().orElse(null);
+        if (referenceTranslatorModel == null) {
+            return false;
+        }
+        final String referenceQueryId = typesOfReference.stream().map(type -> referenceTranslatorModel.getV3translator().getQueryIdByType(type)).findFirst().orElse(null);
+        final Map<?, ?> result = kgV3.executeQueryForInstance(Map.class, dataStage, referenceQueryId, reference, true);
+        if (result == null) {
+            return false;
+        }
+        if (useSourceType) {
+            return true;
+        }
+        return result.get("data") instanceof List && !((List<?>) result.get("data")).isEmpty();
+    }
+}
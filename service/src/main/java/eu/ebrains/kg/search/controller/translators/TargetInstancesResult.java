@@ -37,4 +37,7 @@ public class TargetInstancesResult<Target> {
     private Integer from;
     private Integer size;
     private Integer total;
+    //The time it took to receive the source instances and their size - only known if the page has been streamed
+    private Long fetchDurationInMs;
+    private Long fetchedBytes;
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.translators;
+
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.TargetInternalReference;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Collects the {@link TargetInternalReference}s of target instances. For every class, an access plan is computed once:
+ * It contains a getter (method handle) for every field which can hold a reference - fields which can't (e.g. strings,
+ * numbers or dates) are never read. The plans are held in a {@link ClassValue}, so they can be read without locking.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class TargetInternalReferenceCollector {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodHandle[] NOTHING_TO_VISIT = new MethodHandle[0];
+
+    private static final ClassValue<MethodHandle[]> PLANS = new ClassValue<>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> type) {
+            return createPlan(type);
+        }
+    };
+
+    private static MethodHandle[] createPlan(Class<?> clazz) {
+        List<MethodHandle> getters = new ArrayList<>();
+        for (Class<?> c = clazz; c != null && isOwnClass(c); c = c.getSuperclass()) {
+            final MethodHandles.Lookup lookup;
+            try {
+                lookup = MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(String.format("Can not access the fields of %s", c.getName()), e);
+            }
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isTransient(field.getModifiers()) && !Modifier.isStatic(field.getModifiers()) && canHoldReference(field.getType())) {
+                    try {
+                        getters.add(lookup.unreflectGetter(field).asType(GETTER_TYPE));
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(String.format("Can not access the field %s of %s", field.getName(), c.getName()), e);
+                    }
+                }
+            }
+        }
+        return getters.isEmpty() ? NOTHING_TO_VISIT : getters.toArray(NOTHING_TO_VISIT);
+    }
+
+    private static boolean isOwnClass(Class<?> clazz) {
+        return clazz.getName().startsWith("eu.ebrains.kg");
+    }
+
+    /**
+     * @return false if a value of the given (declared) type can never contain a reference - the decision whether the
+     * actual value contains one is taken by the plan of its runtime class.
+     */
+    private static boolean canHoldReference(Class<?> type) {
+        if (type.isPrimitive() || type.isEnum()) {
+            return false;
+        }
+        if (type.isArray()) {
+            return canHoldReference(type.getComponentType());
+        }
+        if (type == Object.class || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+            return true;
+        }
+        //Types of the JDK (strings, numbers, dates, ...) don't contain any of our classes
+        return isOwnClass(type) || !(type.getName().startsWith("java.") || type.getName().startsWith("javax."));
+    }
+
+    public static List<TargetInternalReference> collect(Object obj) {
+        List<TargetInternalReference> collector = new ArrayList<>();
+        collect(obj, collector);
+        return collector;
+    }
+
+    public static void collect(Object obj, List<TargetInternalReference> collector) {
+        if (obj == null) {
+            return;
+        }
+        if (obj instanceof TargetInternalReference) {
+            collector.add((TargetInternalReference) obj);
+        } else if (obj instanceof Collection) {
+            for (Object element : (Collection<?>) obj) {
+                collect(element, collector);
+            }
+        } else if (obj instanceof Map) {
+            for (Object value : ((Map<?, ?>) obj).values()) {
+                collect(value, collector);
+            }
+        } else if (obj instanceof Object[]) {
+            for (Object element : (Object[]) obj) {
+                collect(element, collector);
+            }
+        } else {
+            for (MethodHandle getter : PLANS.get(obj.getClass())) {
+                final Object value;
+                try {
+                    value = (Object) getter.invokeExact(obj);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(String.format("Was not able to read a field of %s", obj.getClass().getName()), e);
+                }
+                collect(value, collector);
+            }
+        }
+    }
+}
@@ -27,8 +27,8 @@ import eu.ebrains.kg.search.controller.kg.KG;
 import eu.ebrains.kg.search.controller.kg.KGv3;
 import eu.ebrains.kg.search.model.DataStage;
 import eu.ebrains.kg.search.model.ErrorReport;
-import eu.ebrains.kg.search.model.TranslatorModel;
 import eu.ebrains.kg.search.model.source.ResultsOfKG;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
 import eu.ebrains.kg.search.model.source.SourceInstanceV1andV2;
 import eu.ebrains.kg.search.model.source.openMINDSv3.SourceInstanceV3;
 import eu.ebrains.kg.search.model.target.elasticsearch.TargetInstance;
@@ -37,10 +37,18 @@ import eu.ebrains.kg.search.services.DOICitationFormatter;
 import eu.ebrains.kg.search.utils.TranslationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static eu.ebrains.kg.search.controller.translators.Helpers.*;
@@ -50,44 +58,235 @@ public class TranslationController {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final KGv3 kgV3;
     private final DOICitationFormatter doiCitationFormatter;
+    private final ReferenceExistenceProbe referenceExistenceProbe;
+    private final ExecutorService referenceCheckExecutor;
+    //The instances of a page are translated concurrently - the pool is shared by all types indexed in parallel.
+    private final ExecutorService translationExecutor;
+    private final int translationParallelism;
+    //The DOI citations missing in the translations of a page are resolved concurrently - but not to overwhelm the resolvers.
+    private final ExecutorService citationExecutor;
 
-    public TranslationController(KGv3 kgV3, DOICitationFormatter doiCitationFormatter) {
+    public TranslationController(KGv3 kgV3, DOICitationFormatter doiCitationFormatter, ReferenceExistenceProbe referenceExistenceProbe, @Value("${live.referenceChecks.parallelism:8}") int referenceChecksParallelism, @Value("${indexing.translation.parallelism:4}") int translationParallelism, @Value("${indexing.doiCitations.parallelism:8}") int doiCitationsParallelism) {
         this.doiCitationFormatter = doiCitationFormatter;
         this.kgV3 = kgV3;
+        this.referenceExistenceProbe = referenceExistenceProbe;
+        this.referenceCheckExecutor = Executors.newFixedThreadPool(Math.max(1, referenceChecksParallelism));
+        this.translationParallelism = Math.max(1, translationParallelism);
+        this.translationExecutor = Executors.newFixedThreadPool(this.translationParallelism);
+        this.citationExecutor = Executors.newFixedThreadPool(Math.max(1, doiCitationsParallelism));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        referenceCheckExecutor.shutdownNow();
+        translationExecutor.shutdownNow();
+        citationExecutor.shutdownNow();
     }
 
     public <Source, Target> TargetInstancesResult<Target> translateToTargetInstances(KG kg, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, String queryId, DataStage dataStage, int from, int size) {
+        final ResultsOfKG<Source> instanceResults = fetchSourceInstances(kg, translator, queryId, dataStage, from, size);
+        return translateSourceInstances(translator, instanceResults, dataStage);
+    }
+
+    /**
+     * Queries a single page of source instances from the KG without translating them. Together with {@link #translateSourceInstances(Translator, ResultsOfKG, DataStage)}
+     * this allows the indexing to run the fetching and the translation of pages in separate stages.
+     */
+    public <Source, Target> ResultsOfKG<Source> fetchSourceInstances(KG kg, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, String queryId, DataStage dataStage, int from, int size) {
         logger.info(String.format("Starting to query %d %s from %d", size, translator.getSourceType().getSimpleName(), from));
         final ResultsOfKG<Source> instanceResults = kg.executeQuery(translator.getResultType(), dataStage, queryId, from, size);
         Stats stats = getStats(instanceResults, from);
         logger.info(String.format("Queried %d %s (%s)", stats.getPageSize(), translator.getSourceType().getSimpleName(), stats.getInfo()));
+        return instanceResults;
+    }
+
+    public <Source, Target> TargetInstancesResult<Target> translateSourceInstances(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, ResultsOfKG<Source> instanceResults, DataStage dataStage) {
         instanceResults.setErrors(new ErrorReport());
-        List<Target> instances = instanceResults.getData().stream().filter(Objects::nonNull).map(s -> {
-                    try {
-                        return translator.translate(s, dataStage, false, doiCitationFormatter);
-                    } catch (TranslationException e) {
-                        if (instanceResults.getErrors().get(e.getIdentifier()) != null) {
-                            instanceResults.getErrors().get(e.getIdentifier()).add(e.getMessage());
-                        } else {
-                            List<String> errors = new ArrayList<>();
-                            errors.add(e.getMessage());
-                            instanceResults.getErrors().put(e.getIdentifier(), errors);
-                        }
-                        return null;
-                    } catch (Exception e){
-                        String id = "unknown";
-                        if(s instanceof SourceInstanceV3){
-                            id = ((SourceInstanceV3)s).getId();
-                        }
-                        else if(s instanceof SourceInstanceV1andV2){
-                            id = ((SourceInstanceV1andV2)s).getIdentifier();
-                        }
-                        instanceResults.getErrors().put(id, Collections.singletonList(String.format("Unexpected exception: %s", e.getMessage())));
-                        logger.error(String.format("Unexpected exception for instance %s in translation", id), e);
-                        return null;
-                    }
+        final List<Future<Translation<Source, Target>>> translations = instanceResults.getData().stream().filter(Objects::nonNull).map(s -> submitTranslation(translator, s, dataStage, null)).collect(Collectors.toList());
+        List<Target> instances = collectTranslations(translator, dataStage, translations, instanceResults.getErrors());
+        return toTargetInstancesResult(instanceResults, instances);
+    }
+
+    /**
+     * Queries a page of source instances and translates each of them as soon as it has been parsed - so the source instances
+     * of the page never need to be held in memory at the same time.
+     */
+    public <Source, Target> TargetInstancesResult<Target> translateToTargetInstancesStreamed(KGv3 kg, Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, String queryId, DataStage dataStage, int from, int size) {
+        logger.info(String.format("Starting to stream %d %s from %d", size, translator.getSourceType().getSimpleName(), from));
+        final ErrorReport translationErrors = new ErrorReport();
+        final List<Future<Translation<Source, Target>>> translations = new ArrayList<>();
+        //Limits the parsed instances waiting for their translation - otherwise the page could end up in memory again.
+        final Semaphore pendingTranslations = new Semaphore(2 * translationParallelism);
+        //While the parser waits for the translations, the transfer is stalled - this time is not spent by the KG
+        final AtomicLong waitedForTranslationsInMs = new AtomicLong();
+        final ResultsOfKGv3<Source> instanceResults;
+        try {
+            instanceResults = kg.executeQueryStreamed(translator.getSourceType(), dataStage, queryId, from, size, s -> {
+                final long waitStart = System.currentTimeMillis();
+                try {
+                    pendingTranslations.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while translating the instances", e);
+                }
+                waitedForTranslationsInMs.addAndGet(System.currentTimeMillis() - waitStart);
+                translations.add(submitTranslation(translator, s, dataStage, pendingTranslations));
+            });
+        } catch (RuntimeException e) {
+            translations.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        final List<Target> instances = collectTranslations(translator, dataStage, translations, translationErrors);
+        logger.info(String.format("Streamed and translated %d %s (%d out of %d)", instances.size(), translator.getSourceType().getSimpleName(), from + instances.size(), instanceResults.getTotal()));
+        //The parsing errors are reported in the result - we add the translation errors to them.
+        translationErrors.forEach((id, errors) -> instanceResults.getErrors().computeIfAbsent(id, k -> new ArrayList<>()).addAll(errors));
+        final TargetInstancesResult<Target> result = toTargetInstancesResult(instanceResults, instances);
+        if (instanceResults.getTransferDurationInMs() != null) {
+            result.setFetchDurationInMs(Math.max(0, instanceResults.getTransferDurationInMs() - waitedForTranslationsInMs.get()));
+        }
+        result.setFetchedBytes(instanceResults.getPayloadInBytes());
+        return result;
+    }
+
+    private static class Translation<Source, Target> {
+        //The source is only kept if the translation has to be repeated once the missing citations are resolved.
+        private final Source source;
+        private final Target target;
+        private final ErrorReport errors;
+        private final Set<DOICitationFormatter.Citation> missingCitations;
+
+        private Translation(Source source, Target target, ErrorReport errors, Set<DOICitationFormatter.Citation> missingCitations) {
+            this.source = source;
+            this.target = target;
+            this.errors = errors;
+            this.missingCitations = missingCitations;
+        }
+    }
+
+    /**
+     * Translates the source instance on the translation pool. Every translation reports its errors separately, so they
+     * can be merged into the report of the page without synchronization.
+     *
+     * @param permit released as soon as the translation is done (if not null)
+     */
+    private <Source, Target> Future<Translation<Source, Target>> submitTranslation(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, Source s, DataStage dataStage, Semaphore permit) {
+        return translationExecutor.submit(() -> {
+            try {
+                return translateDeferringCitations(translator, s, dataStage);
+            } finally {
+                if (permit != null) {
+                    permit.release();
                 }
-        ).filter(Objects::nonNull).collect(Collectors.toList());
+            }
+        });
+    }
+
+    /**
+     * Translates the source instance without waiting for the DOI citations which are not cached yet - they are reported
+     * in the translation instead.
+     */
+    private <Source, Target> Translation<Source, Target> translateDeferringCitations(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, Source s, DataStage dataStage) {
+        final ErrorReport errors = new ErrorReport();
+        final Set<DOICitationFormatter.Citation> missingCitations = new HashSet<>();
+        final Target target = DOICitationFormatter.deferMissingCitations(missingCitations, () -> translate(translator, s, dataStage, errors));
+        return new Translation<>(missingCitations.isEmpty() ? null : s, target, errors, missingCitations);
+    }
+
+    /**
+     * @return the translated instances in the order of their source instances
+     */
+    private <Source, Target> List<Target> collectTranslations(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, DataStage dataStage, List<Future<Translation<Source, Target>>> translations, ErrorReport errors) {
+        final List<Translation<Source, Target>> results = getAll(translations);
+        patchMissingCitations(translator, dataStage, results);
+        final List<Target> instances = new ArrayList<>();
+        for (Translation<Source, Target> translation : results) {
+            translation.errors.forEach((id, messages) -> errors.computeIfAbsent(id, k -> new ArrayList<>()).addAll(messages));
+            if (translation.target != null) {
+                instances.add(translation.target);
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Resolves the DOI citations missing in the translations of the page concurrently and translates the instances
+     * referring to them again - which is cheap compared to the requests to the DOI resolvers. Citations which can't be
+     * resolved remain missing.
+     */
+    private <Source, Target> void patchMissingCitations(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, DataStage dataStage, List<Translation<Source, Target>> translations) {
+        final Set<DOICitationFormatter.Citation> missingCitations = new HashSet<>();
+        translations.forEach(t -> missingCitations.addAll(t.missingCitations));
+        if (missingCitations.isEmpty()) {
+            return;
+        }
+        logger.info(String.format("Resolving %d DOI citations for %s", missingCitations.size(), translator.getSourceType().getSimpleName()));
+        getAll(missingCitations.stream().map(c -> citationExecutor.submit(() -> {
+            try {
+                //The resolved citation is cached - so the next translation will find it.
+                doiCitationFormatter.getDOICitation(c.getDoi(), c.getStyle(), c.getContentType());
+            } catch (RuntimeException e) {
+                logger.warn(String.format("Wasn't able to resolve the citation of DOI %s", c.getDoi()), e);
+            }
+            return null;
+        })).collect(Collectors.toList()));
+        final Map<Integer, Future<Translation<Source, Target>>> retranslations = new LinkedHashMap<>();
+        for (int i = 0; i < translations.size(); i++) {
+            final Source source = translations.get(i).source;
+            if (source != null) {
+                retranslations.put(i, translationExecutor.submit(() -> translateDeferringCitations(translator, source, dataStage)));
+            }
+        }
+        final List<Translation<Source, Target>> patched = getAll(new ArrayList<>(retranslations.values()));
+        int j = 0;
+        for (Integer i : retranslations.keySet()) {
+            translations.set(i, patched.get(j++));
+        }
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) {
+        final List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while translating the instances", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+        return results;
+    }
+
+    private <Source, Target> Target translate(Translator<Source, Target, ? extends ResultsOfKG<Source>> translator, Source s, DataStage dataStage, ErrorReport errors) {
+        try {
+            return translator.translate(s, dataStage, false, doiCitationFormatter);
+        } catch (TranslationException e) {
+            if (errors.get(e.getIdentifier()) != null) {
+                errors.get(e.getIdentifier()).add(e.getMessage());
+            } else {
+                List<String> errorMessages = new ArrayList<>();
+                errorMessages.add(e.getMessage());
+                errors.put(e.getIdentifier(), errorMessages);
+            }
+            return null;
+        } catch (Exception e){
+            String id = "unknown";
+            if(s instanceof SourceInstanceV3){
+                id = ((SourceInstanceV3)s).getId();
+            }
+            else if(s instanceof SourceInstanceV1andV2){
+                id = ((SourceInstanceV1andV2)s).getIdentifier();
+            }
+            errors.put(id, Collections.singletonList(String.format("Unexpected exception: %s", e.getMessage())));
+            logger.error(String.format("Unexpected exception for instance %s in translation", id), e);
+            return null;
+        }
+    }
+
+    private <Source, Target> TargetInstancesResult<Target> toTargetInstancesResult(ResultsOfKG<Source> instanceResults, List<Target> instances) {
         TargetInstancesResult<Target> result = new TargetInstancesResult<>();
         result.setTargetInstances(instances);
         result.setFrom(instanceResults.getFrom());
@@ -133,49 +332,45 @@ public class TranslationController {
             //To allow the live preview to hide references to non-existent instances, we need to query them too.
             final List<TargetInternalReference> references = new ArrayList<>();
             collectAllTargetInternalReferences(result, references);
-            Map<String, Boolean> cachedReferences = new HashMap<>();
-            references.forEach(t -> {
-                boolean reset = false;
-                if (t.getReference() != null) {
-                    final Boolean fromCache = cachedReferences.get(t.getReference());
-                    if(fromCache !=null){
-                        if(fromCache){
-                           reset = true;
-                        }
-                    }
-                    else {
-                        TargetInstance reference = null;
-                        try {
-                            final List<String> typesOfReference = kgV3.getTypesOfInstance(t.getReference(), DataStage.IN_PROGRESS, false);
-                            if (typesOfReference != null) {
-                                final TranslatorModel<?, ?, ?, ?> referenceTranslatorModel = TranslatorModel.MODELS.stream().filter(m -> m.getV3translator() != null && m.getV3translator().semanticTypes().stream().anyMatch(typesOfReference::contains)).findFirst().orElse(null);
-                                if (referenceTranslatorModel != null) {
-                                    final String referenceQueryId = typesOfReference.stream().map(type -> referenceTranslatorModel.getV3translator().getQueryIdByType(type)).findFirst().orElse(null);
-                                    reference = translateTargetInstance(dataStage, useSourceType, t, reference, referenceTranslatorModel, referenceQueryId);
-                                }
-                            }
-                            reset = reference == null;
-                            cachedReferences.put(t.getReference(), reset);
-                        } catch (WebClientResponseException ignored){
-                            logger.error("A web client exception occurred - ignoring");
-                        }
+            final List<String> distinctReferences = references.stream().map(TargetInternalReference::getReference).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+            try {
+                //Resolves the types of all references in one go - the checks will find them in the cache of the KG controller.
+                //Like the checks, this happens as service account: the existence of a reference doesn't depend on the user.
+                kgV3.getTypesOfInstances(distinctReferences, DataStage.IN_PROGRESS, true);
+            } catch (WebClientResponseException ignored) {
+                logger.error("A web client exception occurred while resolving the types of the references - ignoring");
+            }
+            //The checks are executed concurrently - they don't need the request context since they query as service account.
+            final Map<String, Future<Boolean>> checks = new HashMap<>();
+            distinctReferences.forEach(reference -> checks.put(reference, referenceCheckExecutor.submit(() -> {
+                try {
+                    return referenceExistenceProbe.exists(reference, dataStage, useSourceType);
+                } catch (WebClientResponseException ignored) {
+                    logger.error("A web client exception occurred - ignoring");
+                    return true;
+                }
+            })));
+            Set<String> nonExistingReferences = new HashSet<>();
+            try {
+                for (Map.Entry<String, Future<Boolean>> check : checks.entrySet()) {
+                    if (!check.getValue().get()) {
+                        nonExistingReferences.add(check.getKey());
                     }
                 }
-                if (reset) {
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while checking the references", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            } finally {
+                checks.values().forEach(f -> f.cancel(true));
+            }
+            references.forEach(t -> {
+                if (t.getReference() != null && nonExistingReferences.contains(t.getReference())) {
                     t.setReference(null);
                 }
             });
         }
     }
 
-    private TargetInstance translateTargetInstance(DataStage dataStage, boolean useSourceType, TargetInternalReference t, TargetInstance reference, TranslatorModel<?, ?, ?, ?> referenceTranslatorModel, String referenceQueryId) {
-        try {
-            reference = translateToTargetInstanceForLiveMode(kgV3, referenceTranslatorModel.getV3translator(), referenceQueryId, dataStage, t.getReference(), useSourceType, false);
-        } catch (TranslationException ignored) {
-            logger.error("A translation exception occurred - ignoring");
-        }
-        return reference;
-    }
-
-
 }
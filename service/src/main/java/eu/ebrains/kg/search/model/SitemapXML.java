@@ -1,64 +0,0 @@
-/*
- * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0.
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- * This open source software code was developed in part or in whole in the
- * Human Brain Project, funded from the European Union's Horizon 2020
- * Framework Programme for Research and Innovation under
- * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
- * (Human Brain Project SGA1, SGA2 and SGA3).
- *
- */
-
-package eu.ebrains.kg.search.model;
-
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
-
-import java.io.Serializable;
-import java.util.List;
-
-@JacksonXmlRootElement(localName = "urlset")
-public class SitemapXML implements Serializable {
-    @JacksonXmlProperty(isAttribute = true)
-    private String xmlns = "http://www.sitemaps.org/schemas/sitemap/0.9";
-
-    @JacksonXmlElementWrapper(useWrapping = false)
-    private List<Url> url;
-
-    public List<Url> getUrl() {
-        return url;
-    }
-
-    public void setUrl(List<Url> url) {
-        this.url = url;
-    }
-
-    @JacksonXmlRootElement(localName = "url")
-    public static class Url implements Serializable {
-
-        private String loc;
-
-        public String getLoc() {
-            return loc;
-        }
-
-        public void setLoc(String loc) {
-            this.loc = loc;
-        }
-    }
-
-
-}
@@ -59,6 +59,9 @@ public class ResultsOfKGv3<E> implements ResultsOfKG<E>{
     private Integer size;
     private Integer from;
     private ErrorReport errors;
+    //Only available for streamed responses - measured on the client side and therefore not part of the payload
+    private Long transferDurationInMs;
+    private Long payloadInBytes;
 
     @Override
     public ErrorReport getErrors() {
@@ -133,4 +136,20 @@ public class ResultsOfKGv3<E> implements ResultsOfKG<E>{
     public void setFrom(Integer from) {
         this.from = from;
     }
+
+    public Long getTransferDurationInMs() {
+        return transferDurationInMs;
+    }
+
+    public void setTransferDurationInMs(Long transferDurationInMs) {
+        this.transferDurationInMs = transferDurationInMs;
+    }
+
+    public Long getPayloadInBytes() {
+        return payloadInBytes;
+    }
+
+    public void setPayloadInBytes(Long payloadInBytes) {
+        this.payloadInBytes = payloadInBytes;
+    }
 }
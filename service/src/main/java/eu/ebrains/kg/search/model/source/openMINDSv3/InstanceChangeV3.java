@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.model.source.openMINDSv3;
+
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
+
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * The minimal representation of an instance as returned by the change feed queries - used to detect which instances
+ * have to be reindexed in an incremental update. Next to its id, it contains the release dates of the instance and of
+ * the instances it links to - reported as "lastReleasedAt" properties at arbitrary depth.
+ */
+public class InstanceChangeV3 extends SourceInstanceV3 {
+    private static final String LAST_RELEASED_AT = "lastReleasedAt";
+
+    private final Map<String, Object> properties = new HashMap<>();
+
+    @JsonAnySetter
+    public void setProperty(String key, Object value) {
+        properties.put(key, value);
+    }
+
+    /**
+     * @return the latest release date of the instance and all instances linked by it - null if none of them is released.
+     */
+    public Date getLatestRelease() {
+        return getLatestRelease(properties, null);
+    }
+
+    private static Date getLatestRelease(Object value, Date latest) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getKey() instanceof String && ((String) entry.getKey()).startsWith(LAST_RELEASED_AT)) {
+                    latest = later(latest, parseDate(entry.getValue()));
+                }
+                latest = getLatestRelease(entry.getValue(), latest);
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                latest = getLatestRelease(item, latest);
+            }
+        }
+        return latest;
+    }
+
+    private static Date parseDate(Object value) {
+        if (value instanceof Collection) {
+            //Release dates reached through a path with several hops are reported as lists
+            Date latest = null;
+            for (Object item : (Collection<?>) value) {
+                latest = later(latest, parseDate(item));
+            }
+            return latest;
+        }
+        if (value instanceof Number) {
+            return new Date(((Number) value).longValue());
+        }
+        if (value instanceof String) {
+            try {
+                return new StdDateFormat().parse((String) value);
+            } catch (ParseException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Date later(Date a, Date b) {
+        if (a == null) {
+            return b;
+        }
+        return b != null && b.after(a) ? b : a;
+    }
+
+    public static class Result extends ResultsOfKGv3<InstanceChangeV3> {
+    }
+}
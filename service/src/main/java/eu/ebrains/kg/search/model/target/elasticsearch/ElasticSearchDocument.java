@@ -23,8 +23,10 @@
 
 package eu.ebrains.kg.search.model.target.elasticsearch;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
 import java.util.Map;
 
 public class ElasticSearchDocument {
@@ -41,6 +43,13 @@ public class ElasticSearchDocument {
     @JsonProperty("_source")
     private Map<String, Object> source;
 
+    @JsonProperty("sort")
+    private List<Object> sort;
+
+    @JsonProperty("fields")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, List<Object>> fields;
+
     public String getIndex() {
         return index;
     }
@@ -72,5 +81,20 @@ public class ElasticSearchDocument {
     public void setId(String id) {
         this.id = id;
     }
-}
 
+    public List<Object> getSort() {
+        return sort;
+    }
+
+    public void setSort(List<Object> sort) {
+        this.sort = sort;
+    }
+
+    public Map<String, List<Object>> getFields() {
+        return fields;
+    }
+
+    public void setFields(Map<String, List<Object>> fields) {
+        this.fields = fields;
+    }
+}
@@ -41,6 +41,12 @@ public class ElasticSearchResult {
 
     private Hits hits;
 
+    @JsonProperty("_scroll_id")
+    private String scrollId;
+
+    @JsonProperty("pit_id")
+    private String pitId;
+
     public int getTook() { return took; }
 
     public void setTook(int took) { this.took = took; }
@@ -57,6 +63,14 @@ public class ElasticSearchResult {
 
     public void setHits(Hits hits) { this.hits = hits; }
 
+    public String getScrollId() { return scrollId; }
+
+    public void setScrollId(String scrollId) { this.scrollId = scrollId; }
+
+    public String getPitId() { return pitId; }
+
+    public void setPitId(String pitId) { this.pitId = pitId; }
+
     public Map<String, Agg> getAggregations() {
         return aggregations;
     }
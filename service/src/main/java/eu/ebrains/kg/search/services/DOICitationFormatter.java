@@ -1,7 +1,9 @@
 package eu.ebrains.kg.search.services;
 
+import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
@@ -11,6 +13,10 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientException;
 import reactor.netty.http.client.HttpClient;
 
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
 @Component
 public class DOICitationFormatter {
 
@@ -19,8 +25,63 @@ public class DOICitationFormatter {
             HttpClient.create().followRedirect(true)
     )).build();
 
+    private final String dataciteEndpoint;
+
+    public DOICitationFormatter(@Value("${datacite.endpoint:https://api.datacite.org}") String dataciteEndpoint) {
+        this.dataciteEndpoint = dataciteEndpoint;
+    }
+
+    /**
+     * If set, the citations which are not cached yet are not resolved but collected - so they can be resolved in a batch.
+     */
+    private static final ThreadLocal<Set<Citation>> MISSING_CITATIONS = new ThreadLocal<>();
+
+    @Getter
+    public static class Citation {
+        private final String doi;
+        private final String style;
+        private final String contentType;
+
+        private Citation(String doi, String style, String contentType) {
+            this.doi = doi;
+            this.style = style;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Citation citation = (Citation) o;
+            return doi.equals(citation.doi) && style.equals(citation.style) && contentType.equals(citation.contentType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(doi, style, contentType);
+        }
+    }
+
+    /**
+     * Runs the given call (e.g. a translation) without resolving the citations which are not cached yet - they are
+     * omitted from the result and added to the missing citations instead.
+     */
+    public static <T> T deferMissingCitations(Set<Citation> missingCitations, Supplier<T> call) {
+        MISSING_CITATIONS.set(missingCitations);
+        try {
+            return call.get();
+        } finally {
+            MISSING_CITATIONS.remove();
+        }
+    }
+
     @Cacheable(value = "doiCitation", unless = "#result == null", key = "#doi.concat('-').concat(#style).concat(#contentType)")
     public String getDOICitation(String doi, String style, String contentType) {
+        final Set<Citation> missingCitations = MISSING_CITATIONS.get();
+        if (missingCitations != null) {
+            missingCitations.add(new Citation(doi, style, contentType));
+            return null;
+        }
         return doGetDOICitation(doi, style, contentType);
     }
 
@@ -41,7 +102,7 @@ public class DOICitationFormatter {
     private String getDOICitationViaDataciteAPI(String doi, String style, String contentType) {
         String doiOnly = doi.replace("https://doi.org/", "");
         logger.info("Doi not present in the cache - fetching from datacite.");
-        return webClient.get().uri(String.format("https://api.datacite.org/dois/%s?style=%s", doiOnly, style)).header("Accept", String.format("%s", contentType)).retrieve().bodyToMono(String.class).block();
+        return webClient.get().uri(String.format("%s/dois/%s?style=%s", dataciteEndpoint, doiOnly, style)).header("Accept", String.format("%s", contentType)).retrieve().bodyToMono(String.class).block();
     }
 
     private String doGetDOICitation(String doi, String style, String contentType) {
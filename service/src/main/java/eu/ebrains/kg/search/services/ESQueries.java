@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The queries sent to elasticsearch by the {@link ESServiceClient}. They are written with a {@link JsonGenerator}
+ * (which takes care of the escaping of the values) directly into a byte buffer - the constant property names are
+ * pre-encoded once.
+ */
+final class ESQueries {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final SerializableString QUERY = new SerializedString("query");
+    private static final SerializableString BOOL = new SerializedString("bool");
+    private static final SerializableString MUST = new SerializedString("must");
+    private static final SerializableString TERM = new SerializedString("term");
+    private static final SerializableString TERMS = new SerializedString("terms");
+    private static final SerializableString FIELD = new SerializedString("field");
+    private static final SerializableString SIZE = new SerializedString("size");
+    private static final SerializableString SORT = new SerializedString("sort");
+    private static final SerializableString ID = new SerializedString("_id");
+    private static final SerializableString SEARCH_AFTER = new SerializedString("search_after");
+    private static final SerializableString SOURCE = new SerializedString("_source");
+    private static final SerializableString AGGS = new SerializedString("aggs");
+    private static final SerializableString TRACK_TOTAL_HITS = new SerializedString("track_total_hits");
+    private static final SerializableString PIT = new SerializedString("pit");
+    private static final SerializableString ID_OF_PIT = new SerializedString("id");
+    private static final SerializableString KEEP_ALIVE = new SerializedString("keep_alive");
+    private static final SerializableString SHARD_DOC = new SerializedString("_shard_doc");
+    private static final int MAX_AGGREGATION_SIZE = 1000000000;
+
+    private ESQueries() {
+    }
+
+    @FunctionalInterface
+    private interface QueryWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private static byte[] write(QueryWriter writer) {
+        ByteArrayBuilder buffer = new ByteArrayBuilder(512);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer)) {
+            generator.writeStartObject();
+            writer.write(generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    static byte[] byIdentifier(String identifier) {
+        return write(g -> {
+            g.writeFieldName(QUERY);
+            writeBoolMust(g, "identifier", identifier);
+        });
+    }
+
+    /**
+     * @param type         restricts the documents to the given type (if not null)
+     * @param sourceFields the fields of the source to be returned - no source is returned if empty
+     * @param sortField    the (keyword) field the documents are sorted by in ascending order - in index order if null
+     * @param searchAfter  the sort values of the last document of the previous page (if any)
+     */
+    static byte[] pointInTimePage(int size, String pitId, String keepAlive, String type, List<String> sourceFields, String sortField, List<Object> searchAfter) {
+        return write(g -> {
+            g.writeFieldName(SIZE);
+            g.writeNumber(size);
+            g.writeFieldName(PIT);
+            g.writeStartObject();
+            g.writeFieldName(ID_OF_PIT);
+            g.writeString(pitId);
+            g.writeFieldName(KEEP_ALIVE);
+            g.writeString(keepAlive);
+            g.writeEndObject();
+            g.writeFieldName(SORT);
+            g.writeStartArray();
+            if (sortField != null) {
+                g.writeStartObject();
+                g.writeFieldName(sortField);
+                g.writeString("asc");
+                g.writeEndObject();
+            }
+            g.writeStartObject();
+            g.writeFieldName(SHARD_DOC);
+            g.writeString("asc");
+            g.writeEndObject();
+            g.writeEndArray();
+            g.writeFieldName(TRACK_TOTAL_HITS);
+            g.writeBoolean(false);
+            g.writeFieldName(SOURCE);
+            if (sourceFields.isEmpty()) {
+                g.writeBoolean(false);
+            } else {
+                g.writeStartArray();
+                for (String field : sourceFields) {
+                    g.writeString(field);
+                }
+                g.writeEndArray();
+            }
+            if (type != null) {
+                g.writeFieldName(QUERY);
+                writeBoolMust(g, "type.value", type);
+            }
+            if (searchAfter != null) {
+                g.writeFieldName(SEARCH_AFTER);
+                g.writeStartArray();
+                for (Object value : searchAfter) {
+                    if (value instanceof Number) {
+                        g.writeNumber(value.toString());
+                    } else {
+                        g.writeString(String.valueOf(value));
+                    }
+                }
+                g.writeEndArray();
+            }
+        });
+    }
+
+    static byte[] paginatedFiles(String fileRepositoryId, String searchAfter, int size, String format, String groupingType) {
+        return write(g -> {
+            writePagination(g, size, searchAfter);
+            g.writeFieldName(QUERY);
+            writeBoolMust(g, "fileRepository", fileRepositoryId, "format.value.keyword", format, "groupingTypes.name.keyword", groupingType);
+            g.writeFieldName(TRACK_TOTAL_HITS);
+            g.writeBoolean(true);
+        });
+    }
+
+    /**
+     * @param aggs the fields to aggregate by name of the aggregation
+     */
+    static byte[] aggregationsOfFileRepository(String fileRepositoryId, Map<String, String> aggs) {
+        return write(g -> {
+            g.writeFieldName(SIZE);
+            g.writeNumber(0);
+            g.writeFieldName(AGGS);
+            g.writeStartObject();
+            for (Map.Entry<String, String> agg : aggs.entrySet()) {
+                if (StringUtils.isNotBlank(agg.getKey()) && StringUtils.isNotBlank(agg.getValue())) {
+                    g.writeFieldName(agg.getKey());
+                    g.writeStartObject();
+                    g.writeFieldName(TERMS);
+                    g.writeStartObject();
+                    g.writeFieldName(FIELD);
+                    g.writeString(agg.getValue());
+                    g.writeFieldName(SIZE);
+                    g.writeNumber(MAX_AGGREGATION_SIZE);
+                    g.writeEndObject();
+                    g.writeEndObject();
+                }
+            }
+            g.writeEndObject();
+            g.writeFieldName(QUERY);
+            writeBoolMust(g, "fileRepository", fileRepositoryId);
+        });
+    }
+
+    private static void writePagination(JsonGenerator g, int size, String searchAfter) throws IOException {
+        g.writeFieldName(SIZE);
+        g.writeNumber(size);
+        g.writeFieldName(SORT);
+        g.writeStartArray();
+        g.writeStartObject();
+        g.writeFieldName(ID);
+        g.writeString("asc");
+        g.writeEndObject();
+        g.writeEndArray();
+        if (StringUtils.isNotBlank(searchAfter)) {
+            g.writeFieldName(SEARCH_AFTER);
+            g.writeStartArray();
+            g.writeString(searchAfter);
+            g.writeEndArray();
+        }
+    }
+
+    /**
+     * Writes a bool query with a term clause for each of the given field/value pairs - pairs with a blank value are skipped.
+     */
+    private static void writeBoolMust(JsonGenerator g, String... fieldsAndValues) throws IOException {
+        g.writeStartObject();
+        g.writeFieldName(BOOL);
+        g.writeStartObject();
+        g.writeFieldName(MUST);
+        g.writeStartArray();
+        for (int i = 0; i + 1 < fieldsAndValues.length; i += 2) {
+            if (StringUtils.isNotBlank(fieldsAndValues[i + 1])) {
+                g.writeStartObject();
+                g.writeFieldName(TERM);
+                g.writeStartObject();
+                g.writeStringField(fieldsAndValues[i], fieldsAndValues[i + 1]);
+                g.writeEndObject();
+                g.writeEndObject();
+            }
+        }
+        g.writeEndArray();
+        g.writeEndObject();
+        g.writeEndObject();
+    }
+}
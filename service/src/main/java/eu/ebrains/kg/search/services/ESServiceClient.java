@@ -24,24 +24,32 @@
 package eu.ebrains.kg.search.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import eu.ebrains.kg.search.model.ErrorReport;
 import eu.ebrains.kg.search.model.target.elasticsearch.ElasticSearchDocument;
 import eu.ebrains.kg.search.model.target.elasticsearch.ElasticSearchResult;
+import eu.ebrains.kg.search.utils.CompactIdSet;
 import eu.ebrains.kg.search.utils.MetaModelUtils;
 import lombok.Getter;
 import lombok.Setter;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("java:S1192")
@@ -52,231 +60,36 @@ public class ESServiceClient {
 
     private final static String QUERY = "query";
 
-    private final static String INDEX = "index";
-
     private final static String IDENTIFIER = "identifier";
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final static String ID = "id";
 
-    private final WebClient webClient;
+    private final static String POINT_IN_TIME_KEEP_ALIVE = "1m";
 
-    private final String elasticSearchEndpoint;
+    private final static ParameterizedTypeReference<Map<String, Object>> JSON_OBJECT = new ParameterizedTypeReference<>() {
+    };
 
-    public ESServiceClient(WebClient webClient, @Value("${es.endpoint}") String elasticSearchEndpoint) {
-        this.webClient = webClient;
-        this.elasticSearchEndpoint = elasticSearchEndpoint;
-    }
-
-    private String getQuery(String id) {
-        String normalizeId = id.replace("/", "\\/");
-        return String.format("{\n" +
-                "  \"query\": {\n" +
-                "    \"bool\": {\n" +
-                "      \"must\": [\n" +
-                "        {\n" +
-                "          \"term\": {\n" +
-                "            \"identifier\": \"%s\"\n" +
-                "          }\n" +
-                "        }\n" +
-                "      ]\n" +
-                "    }\n" +
-                "  }\n" +
-                "}", normalizeId);
-    }
-
-
-    private String getPaginatedQuery(String id) {
-        if (id == null) {
-            return String.format("{\n" +
-                    " \"size\": %d,\n" +
-                    " \"sort\": [\n" +
-                    "    {\"_id\": \"asc\"}\n" +
-                    " ]\n" +
-                    "}", ES_QUERY_SIZE);
-        }
-        return String.format("{\n" +
-                " \"size\": %d,\n" +
-                " \"sort\": [\n" +
-                "    {\"_id\": \"asc\"}\n" +
-                "  ],\n" +
-                "  \"search_after\": [\n" +
-                "      \"%s\"\n" +
-                "   ]\n" +
-                "}", ES_QUERY_SIZE, id);
-    }
-
-    private String getAgg(String field) {
-        if(StringUtils.isBlank(field)) {
-            return null;
-        }
-        return String.format(
-            "{\n" +
-            "  \"terms\": {\n" +
-            "    \"field\": \"%s\",\n" +
-            "    \"size\": 1000000000\n" +
-            "  }\n" +
-            "}", field);
-    }
-
-    private String getAggs(Map<String, String> aggs) {
-        List<String> aggList = aggs.entrySet().stream().map(entry -> {
-                String name = entry.getKey();
-                String value = getAgg(entry.getValue());
-                if (StringUtils.isBlank(name) || StringUtils.isBlank(value)) {
-                    return null;
-                }
-                return String.format("\"%s\": %s", name, value);
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-
-        if (aggList.size() == 0) {
-            return null;
-        }
-
-        return "{\n" + StringUtils.join(aggList, ",\n ") + "\n}";
-    }
-
-    private String getQueryTerm(String term, String value) {
-        if(StringUtils.isBlank(value)) {
-            return null;
-        }
-        return String.format(
-                "      {\n" +
-                "        \"term\": {\n" +
-                "          \"%s\": \"%s\"\n" +
-                "        }\n" +
-                "      }", term, value);
-    }
-
-    private String getQuery(Map<String, String> terms) {
-        List<String> termList = terms.entrySet().stream().map(entry -> getQueryTerm(entry.getKey(), entry.getValue()))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-
-        if (termList.size() == 0) {
-            return "";
-        }
-
-        String must = null;
-        if (termList.size() == 1) {
-            must = termList.get(0);
-        } else {
-            must = "[\n" + StringUtils.join(termList, ",\n ") + "\n]";
-        }
-
-        return String.format(
-                "  {\n" +
-                "    \"bool\": {\n" +
-                "      \"must\": %s\n" +
-                "    }\n" +
-                "  }", must);
-    }
-
-    private String getPayload(Map<String, String> parameters) {
-        List<String> list = parameters.entrySet().stream().map(entry -> {
-                    if (StringUtils.isBlank(entry.getValue())) {
-                        return null;
-                    }
-                    return String.format("\"%s\": %s", entry.getKey(), entry.getValue());
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
-        return "{\n" + StringUtils.join(list, ",\n ") + "\n}";
-    }
+    private final WebClient webClient;
 
-    private String getPaginatedFilesQuery(String fileRepositoryId, String searchAfter, int size, String format, String groupingType) {
+    private final String elasticSearchEndpoint;
 
-        String sizeValue = String.format("%d", size);
+    private final int maxInFlightBulkRequests;
 
-        String sortValue =
-            "[\n" +
-            "    {\"_id\": \"asc\"}\n" +
-            "]";
+    private final int maxBulkRetries;
 
-        String searchAfterValue = "";
-        if (StringUtils.isNotBlank(searchAfter)) {
-            searchAfterValue = String.format(
-                "  [\n" +
-                "    \"%s\"\n" +
-                "  ]", searchAfter);
-        }
+    private final long initialBulkBackoffInMs;
 
-        Map<String, String> terms = Map.of(
-                "fileRepository", fileRepositoryId,
-                "format.value.keyword", format,
-                "groupingTypes.name.keyword", groupingType
-        );
-        String queryValue = getQuery(terms);
-
-        Map<String, String> parameters = Map.of(
-                "size", sizeValue,
-                "sort", sortValue,
-                "search_after", searchAfterValue,
-                QUERY, queryValue,
-                "track_total_hits", "true"
-        );
-
-        return getPayload(parameters);
-    }
-
-    private String getAggregationsQuery(String fileRepositoryId, Map<String, String> aggs) {
-
-        String aggsValue = getAggs(aggs);
-
-        Map<String, String> terms = Map.of(
-                "fileRepository", fileRepositoryId
-        );
-        String queryValue = getQuery(terms);
-
-        Map<String, String> parameters = Map.of(
-                "size", "0",
-                "aggs", aggsValue,
-                QUERY, queryValue
-        );
-
-        return getPayload(parameters);
-    }
-
-    private String getIdsOfPaginatedQuery(String id, String type) {
-        if (id == null) {
-            return String.format("{\n" +
-                    " \"size\": %d,\n" +
-                    " \"sort\": [\n" +
-                    "    {\"_id\": \"asc\"}\n" +
-                    " ],\n" +
-                    "  \"query\": {\n" +
-                    "    \"bool\": {\n" +
-                    "      \"must\": {\n" +
-                    "          \"term\": {\n" +
-                    "            \"type.value\": \"%s\"\n" +
-                    "          }\n" +
-                    "        }\n" +
-                    "    }\n" +
-                    "  },\n" +
-                    " \"_source\": \"false\"\n" +
-                    "}", ES_QUERY_SIZE, type);
-        }
-        return String.format("{\n" +
-                " \"size\": %d,\n" +
-                " \"sort\": [\n" +
-                "    {\"_id\": \"asc\"}\n" +
-                "  ],\n" +
-                "  \"search_after\": [\n" +
-                "      \"%s\"\n" +
-                "  ],\n" +
-                "  \"query\": {\n" +
-                "    \"bool\": {\n" +
-                "      \"must\": {\n" +
-                "          \"term\": {\n" +
-                "            \"type.value\": \"%s\"\n" +
-                "          }\n" +
-                "        }\n" +
-                "    }\n" +
-                "  },\n" +
-                " \"_source\": \"false\"\n" +
-                "}", ES_QUERY_SIZE, id, type);
+    public ESServiceClient(WebClient webClient, @Value("${es.endpoint}") String elasticSearchEndpoint,
+                           @Value("${indexing.bulk.maxInFlightRequests:2}") int maxInFlightBulkRequests,
+                           @Value("${indexing.bulk.maxRetries:5}") int maxBulkRetries,
+                           @Value("${indexing.bulk.initialBackoffInMs:500}") long initialBulkBackoffInMs) {
+        this.webClient = webClient;
+        this.elasticSearchEndpoint = elasticSearchEndpoint;
+        this.maxInFlightBulkRequests = maxInFlightBulkRequests;
+        this.maxBulkRetries = maxBulkRetries;
+        this.initialBulkBackoffInMs = initialBulkBackoffInMs;
     }
 
     @Getter
@@ -285,76 +98,157 @@ public class ESServiceClient {
         private Long count;
     }
 
+    public long count(String index) {
+        ESCountResult result = webClient.get()
+                .uri(String.format("%s/%s/_count", elasticSearchEndpoint, index))
+                .retrieve()
+                .bodyToMono(ESCountResult.class)
+                .block();
+        return result != null && result.getCount() != null ? result.getCount() : 0;
+    }
+
 
-    public ElasticSearchDocument getDocument(String index, String id) {
+    /**
+     * @return the first document (with its original index and _id) which contains the given identifier or null if there is none
+     */
+    public ElasticSearchDocument searchDocumentByIdentifier(String index, String id) {
         ElasticSearchResult result = webClient.post()
                 .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                .body(BodyInserters.fromValue(getQuery(id)))
+                .body(BodyInserters.fromValue(ESQueries.byIdentifier(id)))
                 .retrieve()
                 .bodyToMono(ElasticSearchResult.class)
                 .block();
         ElasticSearchResult.Hits hits = result == null ? null:result.getHits();
-        List<ElasticSearchDocument> documents = hits == null ? Collections.emptyList() : hits.getHits();
-        if (documents.isEmpty()) {
+        List<ElasticSearchDocument> documents = hits == null || hits.getHits() == null ? Collections.emptyList() : hits.getHits();
+        return documents.isEmpty() ? null : documents.get(0);
+    }
+
+    @Getter
+    @Setter
+    public static class ESGetResult extends ElasticSearchDocument {
+        private boolean found;
+    }
+
+    /**
+     * Reads the document by its _id with a realtime get (which only hits the shard holding the document).
+     *
+     * @return the document or null if it doesn't exist
+     */
+    public ElasticSearchDocument getDocumentById(String index, String id) {
+        try {
+            final ESGetResult result = webClient.get()
+                    .uri(String.format("%s/%s/_doc/{id}", elasticSearchEndpoint, index), id)
+                    .retrieve()
+                    .bodyToMono(ESGetResult.class)
+                    .block();
+            if (result == null || !result.isFound()) {
+                return null;
+            }
             ElasticSearchDocument doc = new ElasticSearchDocument();
-            doc.setId(id);
-            doc.setType("_doc");
-            doc.setIndex(index);
+            doc.setIndex(result.getIndex());
+            doc.setId(result.getId());
+            doc.setType(result.getType());
+            doc.setSource(result.getSource());
             return doc;
+        } catch (WebClientResponseException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
         }
-        ElasticSearchDocument doc = documents.get(0);
-        doc.setId(id);
-        return doc;
-    }
-
-    public List<ElasticSearchDocument> getDocuments(String index) {
-        List<ElasticSearchDocument> result = new ArrayList<>();
-        String searchAfter = null;
-        boolean continueSearch = true;
-        while (continueSearch) {
-            ElasticSearchResult documents = getPaginatedDocuments(index, searchAfter);
-            List<ElasticSearchDocument> hits = documents.getHits().getHits();
-            result.addAll(hits);
-            searchAfter = hits.size() < ES_QUERY_SIZE ? null:hits.get(hits.size()-1).getId();
-            continueSearch = searchAfter != null;
-        }
-        return result;
     }
 
-    public List<String> getDocumentIds(String index, Class<?> type) {
-        List<String> result = new ArrayList<>();
-        String searchAfter = null;
-        boolean continueSearch = true;
-        while (continueSearch) {
-            ElasticSearchResult documents = getPaginatedDocumentIds(index, searchAfter, type);
-            List<ElasticSearchDocument> hits = documents.getHits().getHits();
-            hits.forEach(hit -> result.add(hit.getId()));
-            searchAfter = hits.size() < ES_QUERY_SIZE ? null:hits.get(hits.size()-1).getId();
-            continueSearch = searchAfter != null;
+    /**
+     * Streams the documents of the given index (pattern) page by page through a point in time, so the result is
+     * consistent even if the index is written concurrently. The next page is already requested while the current
+     * one is consumed - at most two pages are kept in memory.
+     *
+     * @param type         restricts the documents to the given type (if not null)
+     * @param sourceFields the fields of the source to be returned - no source is returned if empty
+     */
+    public void forEachDocument(String index, Class<?> type, List<String> sourceFields, Consumer<ElasticSearchDocument> consumer) {
+        forEachDocument(index, type, sourceFields, null, consumer);
+    }
+
+    private void forEachDocument(String index, Class<?> type, List<String> sourceFields, String sortField, Consumer<ElasticSearchDocument> consumer) {
+        final String typeName = type != null ? MetaModelUtils.getNameForClass(type) : null;
+        String pitId = openPointInTime(index);
+        try {
+            Mono<ElasticSearchResult> nextPage = prefetch(getPointInTimePage(pitId, typeName, sourceFields, sortField, null));
+            while (nextPage != null) {
+                final ElasticSearchResult page = nextPage.block();
+                if (page == null || page.getHits() == null || page.getHits().getHits() == null) {
+                    throw new RuntimeException("Wasn't able to read documents from elasticsearch");
+                }
+                if (page.getPitId() != null) {
+                    pitId = page.getPitId();
+                }
+                final List<ElasticSearchDocument> hits = page.getHits().getHits();
+                nextPage = hits.size() < ES_QUERY_SIZE ? null : prefetch(getPointInTimePage(pitId, typeName, sourceFields, sortField, hits.get(hits.size() - 1).getSort()));
+                hits.forEach(consumer);
+            }
+        } finally {
+            closePointInTime(pitId);
         }
-        return result;
     }
 
+    public void forEachDocumentId(String index, Class<?> type, Consumer<String> consumer) {
+        forEachDocument(index, type, Collections.emptyList(), document -> consumer.accept(document.getId()));
+    }
+
+    /**
+     * Streams the documents (with the given source fields) in ascending order of their ids (by their "id" field which
+     * holds the same value as the _id but - other than the _id - can be sorted by without loading it into the field data cache).
+     */
+    public void forEachDocumentInOrder(String index, Class<?> type, List<String> sourceFields, Consumer<ElasticSearchDocument> consumer) {
+        forEachDocument(index, type, sourceFields, ID, consumer);
+    }
+
+    private static <T> Mono<T> prefetch(Mono<T> mono) {
+        final Mono<T> cached = mono.cache();
+        cached.subscribe(r -> {}, e -> {});
+        return cached;
+    }
 
-    private ElasticSearchResult getPaginatedDocuments(String index, String searchAfter) {
-        String paginatedQuery = getPaginatedQuery(searchAfter);
+    private Mono<ElasticSearchResult> getPointInTimePage(String pitId, String type, List<String> sourceFields, String sortField, List<Object> searchAfter) {
         return webClient.post()
-                .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
-                .body(BodyInserters.fromValue(paginatedQuery))
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE)
+                .uri(String.format("%s/_search", elasticSearchEndpoint))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(ESQueries.pointInTimePage(ES_QUERY_SIZE, pitId, POINT_IN_TIME_KEEP_ALIVE, type, sourceFields, sortField, searchAfter)))
                 .retrieve()
-                .bodyToMono(ElasticSearchResult.class)
+                .bodyToMono(ElasticSearchResult.class);
+    }
+
+    private String openPointInTime(String index) {
+        final Map<?, ?> result = webClient.post()
+                .uri(String.format("%s/%s/_pit?keep_alive=%s", elasticSearchEndpoint, index, POINT_IN_TIME_KEEP_ALIVE))
+                .retrieve()
+                .bodyToMono(Map.class)
+                .block();
+        if (result == null || !(result.get("id") instanceof String)) {
+            throw new RuntimeException(String.format("Wasn't able to open a point in time for %s", index));
+        }
+        return (String) result.get("id");
+    }
+
+    private void closePointInTime(String pitId) {
+        webClient.method(HttpMethod.DELETE)
+                .uri(String.format("%s/_pit", elasticSearchEndpoint))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(Map.of("id", pitId)))
+                .retrieve()
+                .bodyToMono(Void.class)
+                .onErrorResume(e -> Mono.empty())
                 .block();
     }
 
     public ElasticSearchResult getAggregationsFromRepo(String index, String fileRepositoryId, Map<String, String> aggs) {
-        String query = getAggregationsQuery(fileRepositoryId, aggs);
         try {
             return webClient.post()
                     .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
-                    .body(BodyInserters.fromValue(query))
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE)
+                    .body(BodyInserters.fromValue(ESQueries.aggregationsOfFileRepository(fileRepositoryId, aggs)))
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .retrieve()
                     .bodyToMono(ElasticSearchResult.class)
                     .block();
@@ -368,12 +262,11 @@ public class ESServiceClient {
     }
 
     public ElasticSearchResult getFilesFromRepo(String index, String fileRepositoryId, String searchAfter, int size, String format, String groupingType) {
-        String paginatedQuery = getPaginatedFilesQuery(fileRepositoryId, searchAfter, size, format, groupingType);
         try {
             return webClient.post()
                     .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
-                    .body(BodyInserters.fromValue(paginatedQuery))
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE)
+                    .body(BodyInserters.fromValue(ESQueries.paginatedFiles(fileRepositoryId, searchAfter, size, format, groupingType)))
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .retrieve()
                     .bodyToMono(ElasticSearchResult.class)
                     .block();
@@ -386,24 +279,12 @@ public class ESServiceClient {
         }
     }
 
-    private ElasticSearchResult getPaginatedDocumentIds(String index, String searchAfter, Class<?> type) {
-        String paginatedQuery = getIdsOfPaginatedQuery(searchAfter, MetaModelUtils.getNameForClass(type));
-        return webClient.post()
-                .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
-                .body(BodyInserters.fromValue(paginatedQuery))
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE)
-                .retrieve()
-                .bodyToMono(ElasticSearchResult.class)
-                .block();
-    }
-
-    public String searchDocuments(String index, JsonNode payload) {
+    public Mono<byte[]> searchDocuments(String index, JsonNode payload) {
         return webClient.post()
                 .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
                 .body(BodyInserters.fromValue(payload))
                 .retrieve()
-                .bodyToMono(String.class)
-                .block();
+                .bodyToMono(byte[].class);
     }
 
     public void deleteIndex(String index) {
@@ -414,10 +295,43 @@ public class ESServiceClient {
                 .block();
     }
 
-    public void reindex(String source, String target){
-        final Map<String, Map<String, String>> payload = Map.of("source", Map.of(INDEX, source), "dest", Map.of(INDEX, target));
-         webClient.post().uri(String.format("%s/_reindex", elasticSearchEndpoint))
-                .body(BodyInserters.fromValue(payload)).retrieve().bodyToMono(Void.class).block();
+    /**
+     * @return the aliases by (physical) index for the given index, alias or pattern - empty if there is no such index
+     */
+    public Map<String, Set<String>> getAliases(String index) {
+        try {
+            Map<String, Object> result = webClient.get()
+                    .uri(String.format("%s/%s/_alias", elasticSearchEndpoint, index))
+                    .retrieve()
+                    .bodyToMono(JSON_OBJECT)
+                    .block();
+            Map<String, Set<String>> aliases = new HashMap<>();
+            if (result != null) {
+                result.forEach((k, v) -> {
+                    final Object aliasesOfIndex = v instanceof Map ? ((Map<?, ?>) v).get("aliases") : null;
+                    aliases.put(k, aliasesOfIndex instanceof Map ? ((Map<?, ?>) aliasesOfIndex).keySet().stream().map(String::valueOf).collect(Collectors.toSet()) : Collections.emptySet());
+                });
+            }
+            return aliases;
+        } catch (WebClientResponseException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return Collections.emptyMap();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the given alias actions atomically
+     */
+    public void updateAliases(List<Map<String, Map<String, String>>> actions) {
+        webClient.post()
+                .uri(String.format("%s/_aliases", elasticSearchEndpoint))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(Map.of("actions", actions)))
+                .retrieve()
+                .bodyToMono(Void.class)
+                .block();
     }
 
 
@@ -430,28 +344,311 @@ public class ESServiceClient {
                 .block();
     }
 
-    public void updateIndex(String index, String operations) {
-        Map result = webClient.post()
+    /**
+     * Informed about every bulk request sent to elasticsearch
+     */
+    @FunctionalInterface
+    public interface BulkListener {
+        /**
+         * @param rejected true if elasticsearch has rejected the request or some of its operations because it is overloaded (429)
+         */
+        void onBulkWritten(long durationInMs, boolean rejected);
+    }
+
+    /**
+     * Submits the given bulk payloads with up to {@link #maxInFlightBulkRequests} concurrent requests. Requests and
+     * operations rejected by elasticsearch because it is overloaded (429) are retried with an exponential backoff.
+     *
+     * @return the operations which have failed eventually - by document id
+     */
+    public ErrorReport updateIndex(String index, List<StringBuilder> operationsList, BulkListener listener) {
+        final ErrorReport errors = new ErrorReport();
+        final List<ErrorReport> results = Flux.fromIterable(operationsList)
+                .flatMap(operations -> submitBulk(index, operations.toString(), 0, listener), maxInFlightBulkRequests)
+                .collectList()
+                .block();
+        if (results != null) {
+            results.forEach(errors::putAll);
+        }
+        if (!errors.isEmpty()) {
+            logger.error(String.format("%d operations on index %s have failed", errors.size(), index));
+        }
+        return errors;
+    }
+
+    private Mono<ErrorReport> submitBulk(String index, String operations, int attempt, BulkListener listener) {
+        final long start = System.currentTimeMillis();
+        return webClient.post()
                 .uri(String.format("%s/%s/_bulk", elasticSearchEndpoint, index))
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE)
                 .body(BodyInserters.fromValue(operations))
                 .retrieve()
-                .bodyToMono(Map.class)
+                .bodyToMono(JSON_OBJECT)
+                .map(Optional::of)
+                .onErrorResume(WebClientResponseException.TooManyRequests.class, e -> {
+                    listener.onBulkWritten(System.currentTimeMillis() - start, true);
+                    return attempt < maxBulkRetries ? Mono.just(Optional.empty()) : Mono.error(e);
+                })
+                .flatMap(response -> {
+                    if (response.isEmpty()) {
+                        logger.info(String.format("Bulk request on index %s has been rejected - retrying (attempt %d)", index, attempt + 1));
+                        return Mono.delay(getBulkBackoff(attempt)).then(submitBulk(index, operations, attempt + 1, listener));
+                    }
+                    final StringBuilder retry = new StringBuilder();
+                    final ErrorReport errors = getBulkErrors(response.get(), operations, attempt < maxBulkRetries ? retry : null);
+                    final boolean rejected = retry.length() > 0;
+                    listener.onBulkWritten(System.currentTimeMillis() - start, rejected);
+                    if (!rejected) {
+                        return Mono.just(errors);
+                    }
+                    logger.info(String.format("Some bulk operations on index %s have been rejected - retrying (attempt %d)", index, attempt + 1));
+                    return Mono.delay(getBulkBackoff(attempt)).then(submitBulk(index, retry.toString(), attempt + 1, listener)).map(retried -> {
+                        errors.putAll(retried);
+                        return errors;
+                    });
+                });
+    }
+
+    private Duration getBulkBackoff(int attempt) {
+        return Duration.ofMillis(initialBulkBackoffInMs << Math.min(attempt, 6));
+    }
+
+    /**
+     * Reads the failed items of a bulk response. The items are in the order of the operations - an item of a delete
+     * operation corresponds to a single line of the payload, all others to two lines (action and document).
+     *
+     * @param retry collects the operations rejected because elasticsearch was overloaded (if not null)
+     */
+    private ErrorReport getBulkErrors(Map<String, Object> response, String operations, StringBuilder retry) {
+        final ErrorReport errors = new ErrorReport();
+        if (!Boolean.TRUE.equals(response.get("errors")) || !(response.get("items") instanceof List)) {
+            return errors;
+        }
+        final String[] lines = operations.split("\n");
+        int line = 0;
+        for (Object item : (List<?>) response.get("items")) {
+            //The item is keyed by its operation ("index" or "delete")
+            final Map.Entry<?, ?> operation = ((Map<?, ?>) item).entrySet().iterator().next();
+            final Map<?, ?> result = (Map<?, ?>) operation.getValue();
+            final int numberOfLines = "delete".equals(operation.getKey()) ? 1 : 2;
+            final int status = ((Number) result.get("status")).intValue();
+            if (status >= 400) {
+                if (status == HttpStatus.TOO_MANY_REQUESTS.value() && retry != null) {
+                    for (int i = line; i < line + numberOfLines && i < lines.length; i++) {
+                        retry.append(lines[i]).append("\n");
+                    }
+                } else {
+                    errors.computeIfAbsent(String.valueOf(result.get("_id")), k -> new ArrayList<>()).add(String.format("Elasticsearch failed to %s the document in %s (status %d): %s", operation.getKey(), result.get("_index"), status, result.get("error")));
+                }
+            }
+            line += numberOfLines;
+        }
+        return errors;
+    }
+
+    /**
+     * @return the doc value of the given (top level) field by document id - documents which don't exist or don't have the field are omitted
+     */
+    public Map<String, String> getDocValueOfDocuments(String index, List<String> ids, String field) {
+        Map<String, String> values = new HashMap<>();
+        if (ids.isEmpty()) {
+            return values;
+        }
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(QUERY, Map.of("ids", Map.of("values", ids)));
+        payload.put("_source", false);
+        payload.put("docvalue_fields", Collections.singletonList(field));
+        payload.put("size", ids.size());
+        ElasticSearchResult result = webClient.post()
+                .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(payload))
+                .retrieve()
+                .bodyToMono(ElasticSearchResult.class)
+                .block();
+        if (result != null && result.getHits() != null && result.getHits().getHits() != null) {
+            for (ElasticSearchDocument doc : result.getHits().getHits()) {
+                final List<Object> value = doc.getFields() != null ? doc.getFields().get(field) : null;
+                if (!CollectionUtils.isEmpty(value) && value.get(0) != null) {
+                    values.put(doc.getId(), value.get(0).toString());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the source of the document with the given id or null if it doesn't exist
+     */
+    public Map<String, Object> getSource(String index, String id) {
+        try {
+            Map<String, Object> result = webClient.get()
+                    .uri(String.format("%s/%s/_doc/%s", elasticSearchEndpoint, index, id))
+                    .retrieve()
+                    .bodyToMono(JSON_OBJECT)
+                    .block();
+            return result != null ? asJsonObject(result.get("_source")) : null;
+        } catch (WebClientResponseException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static Map<String, Object> asJsonObject(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        ((Map<?, ?>) value).forEach((k, v) -> result.put(String.valueOf(k), v));
+        return result;
+    }
+
+    public void putSource(String index, String id, Object source) {
+        webClient.put()
+                .uri(String.format("%s/%s/_doc/%s", elasticSearchEndpoint, index, id))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(source))
+                .retrieve()
+                .bodyToMono(Void.class)
                 .block();
-        if (result != null && ((boolean) result.get("errors"))) {
-            ((List<Map<String, Object>>) result.get("items")).forEach(item -> {
-                Map<String, Object> instance = (Map) item.get(INDEX);
-                if ((int) instance.get("status") >= 400) {
-                    logger.error(instance.toString());
+    }
+
+    /**
+     * @param type restricts the documents to the given type (if not null) - e.g. for indices shared by several types
+     * @return the ids of the documents containing an internal reference to one of the given references - also in nested fields
+     */
+    public Set<String> getDocumentIdsReferencing(String index, Class<?> type, List<String> references) {
+        final String typeName = type != null ? MetaModelUtils.getNameForClass(type) : null;
+        int pageSize = 500;
+        Set<String> result = new HashSet<>();
+        final Map<String, Object> properties = getMappingProperties(index);
+        for (int p = 0; p * pageSize < references.size(); p++) {
+            final String query = references.subList(p * pageSize, Math.min(references.size(), (p + 1) * pageSize)).stream().map(r -> String.format("\"%s\"", r)).collect(Collectors.joining(" OR "));
+            Object searchAfter = null;
+            boolean continueSearch = true;
+            while (continueSearch) {
+                Map<String, Object> payload = new HashMap<>();
+                final Map<String, Object> referenceQuery = getReferenceQuery(query, properties, null);
+                payload.put(QUERY, typeName != null ? Map.of("bool", Map.of("must", referenceQuery, "filter", Collections.singletonList(Map.of("term", Map.of("type.value", typeName))))) : referenceQuery);
+                payload.put("_source", false);
+                payload.put("size", ES_QUERY_SIZE);
+                payload.put("sort", Collections.singletonList(Map.of(ID, "asc")));
+                if (searchAfter != null) {
+                    payload.put("search_after", Collections.singletonList(searchAfter));
+                }
+                ElasticSearchResult r = webClient.post()
+                        .uri(String.format("%s/%s/_search", elasticSearchEndpoint, index))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body(BodyInserters.fromValue(payload))
+                        .retrieve()
+                        .bodyToMono(ElasticSearchResult.class)
+                        .block();
+                if (r == null || r.getHits() == null || r.getHits().getHits() == null) {
+                    throw new RuntimeException("Wasn't able to read referencing documents from elasticsearch");
+                }
+                final List<ElasticSearchDocument> hits = r.getHits().getHits();
+                hits.forEach(hit -> result.add(hit.getId()));
+                searchAfter = hits.size() < ES_QUERY_SIZE ? null : hits.get(hits.size() - 1).getId();
+                continueSearch = searchAfter != null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the field definitions of the mapping of the given index - merged if it resolves to several indices
+     */
+    private Map<String, Object> getMappingProperties(String index) {
+        Map<String, Object> response = webClient.get()
+                .uri(String.format("%s/%s/_mapping", elasticSearchEndpoint, index))
+                .retrieve()
+                .bodyToMono(JSON_OBJECT)
+                .block();
+        Map<String, Object> result = new HashMap<>();
+        if (response != null) {
+            response.values().forEach(indexMapping -> {
+                Map<String, Object> mappings = asJsonObject(indexMapping instanceof Map ? ((Map<?, ?>) indexMapping).get("mappings") : null);
+                Map<String, Object> properties = mappings != null ? asJsonObject(mappings.get("properties")) : null;
+                if (properties != null) {
+                    result.putAll(properties);
                 }
             });
         }
+        return result;
+    }
+
+    /**
+     * Nested documents are not reached by a query on the parent document - every nested field (at any depth) gets its
+     * own nested query.
+     */
+    private static Map<String, Object> getReferenceQuery(String query, Map<String, Object> properties, String path) {
+        Map<String, Object> queryString = Map.of("query_string", Map.of("query", query, "fields", Collections.singletonList("*.reference"), "lenient", true));
+        List<Object> should = new ArrayList<>();
+        should.add(queryString);
+        addNestedReferenceQueries(query, properties, path, should);
+        return should.size() == 1 ? queryString : Map.of("bool", Map.of("should", should, "minimum_should_match", 1));
+    }
+
+    private static void addNestedReferenceQueries(String query, Map<String, Object> properties, String path, List<Object> should) {
+        properties.forEach((name, value) -> {
+            Map<String, Object> definition = asJsonObject(value);
+            Map<String, Object> nestedProperties = definition != null ? asJsonObject(definition.get("properties")) : null;
+            if (nestedProperties != null) {
+                String fieldPath = path == null ? name : String.format("%s.%s", path, name);
+                if ("nested".equals(definition.get("type"))) {
+                    should.add(Map.of("nested", Map.of("path", fieldPath, QUERY, getReferenceQuery(query, nestedProperties, fieldPath))));
+                } else {
+                    addNestedReferenceQueries(query, nestedProperties, fieldPath, should);
+                }
+            }
+        });
     }
 
-    public void updateIndex(String index, List<StringBuilder> operationsList) {
-        logger.info(String.format("Updating index %s with %s bulk operations", index, operationsList.size()));
-        operationsList.forEach(operations -> this.updateIndex(index, operations.toString()));
-        logger.info(String.format("Done updating index %s", index));
+    /**
+     * @return the identifiers of all documents - in a {@link CompactIdSet} since they are kept for a whole indexing run
+     */
+    public Set<String> getAllIdentifiers(String index) {
+        Set<String> result = new CompactIdSet();
+        Object query = Map.of("size", ES_QUERY_SIZE, "_source", Collections.singletonList(IDENTIFIER), "sort", Collections.singletonList("_doc"));
+        ElasticSearchResult r = webClient.post()
+                .uri(String.format("%s/%s/_search?scroll=1m", elasticSearchEndpoint, index))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(query))
+                .retrieve()
+                .bodyToMono(ElasticSearchResult.class)
+                .block();
+        String scrollId = null;
+        try {
+            while (r != null && r.getHits() != null && !CollectionUtils.isEmpty(r.getHits().getHits())) {
+                r.getHits().getHits().forEach(esDocument -> {
+                    if (esDocument != null && esDocument.getSource() != null && esDocument.getSource().get(IDENTIFIER) instanceof List) {
+                        ((List<?>) esDocument.getSource().get(IDENTIFIER)).stream().filter(Objects::nonNull).forEach(identifier -> result.add(identifier.toString()));
+                    }
+                });
+                scrollId = r.getScrollId();
+                r = webClient.post()
+                        .uri(String.format("%s/_search/scroll", elasticSearchEndpoint))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body(BodyInserters.fromValue(Map.of("scroll", "1m", "scroll_id", scrollId)))
+                        .retrieve()
+                        .bodyToMono(ElasticSearchResult.class)
+                        .block();
+            }
+        } finally {
+            if (scrollId != null) {
+                webClient.method(HttpMethod.DELETE)
+                        .uri(String.format("%s/_search/scroll", elasticSearchEndpoint))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body(BodyInserters.fromValue(Map.of("scroll_id", scrollId)))
+                        .retrieve()
+                        .bodyToMono(Void.class)
+                        .onErrorResume(e -> Mono.empty())
+                        .block();
+            }
+        }
+        return result;
     }
 
     public Set<String> existingDocuments(String index, List<String> identifiers){
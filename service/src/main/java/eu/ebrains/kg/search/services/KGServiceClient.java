@@ -1,18 +1,40 @@
 package eu.ebrains.kg.search.services;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.ebrains.kg.search.configuration.GracefulDeserializationProblemHandler;
+import eu.ebrains.kg.search.model.ErrorReport;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public abstract class KGServiceClient {
 
+    private static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+
     protected final WebClient serviceAccountWebClient;
     protected final WebClient userWebClient;
+    protected final ObjectMapper objectMapper;
 
-    public KGServiceClient(WebClient serviceAccountWebClient, WebClient userWebClient) {
+    public KGServiceClient(WebClient serviceAccountWebClient, WebClient userWebClient, ObjectMapper objectMapper) {
         this.serviceAccountWebClient = serviceAccountWebClient;
         this.userWebClient = userWebClient;
+        this.objectMapper = objectMapper;
     }
 
     protected <T> T executeCallForInstance(Class<T> clazz, String url, boolean asServiceAccount) {
@@ -36,4 +58,116 @@ public abstract class KGServiceClient {
                 .doFinally(t -> GracefulDeserializationProblemHandler.ERROR_REPORTING_THREAD_LOCAL.remove())
                 .block();
     }
+
+    /**
+     * Executes the call for indexing but - instead of materializing the whole page - reads the "data" array of the
+     * response token by token and hands every instance to the consumer as soon as it is parsed.
+     *
+     * @return the paging information, the parsing errors and the transfer statistics of the page. The data itself is
+     * not part of the result.
+     */
+    protected <E> ResultsOfKGv3<E> executeStreamingCallForIndexing(Class<E> elementType, String url, Consumer<E> consumer) {
+        final PipedInputStream input = new PipedInputStream(STREAMING_BUFFER_SIZE);
+        final PipedOutputStream output;
+        try {
+            output = new PipedOutputStream(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong receivedBytes = new AtomicLong();
+        final AtomicLong lastByteReceivedAt = new AtomicLong();
+        final long start = System.currentTimeMillis();
+        //Writing to the pipe blocks - we therefore make sure it doesn't happen on the event loop
+        final Disposable subscription = DataBufferUtils.write(serviceAccountWebClient.get()
+                        .uri(url)
+                        .headers(h -> h.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE))
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class)
+                        //Measured before handing the buffers over - so the statistics reflect the transfer only
+                        .doOnNext(b -> receivedBytes.addAndGet(b.readableByteCount()))
+                        .doOnComplete(() -> lastByteReceivedAt.set(System.currentTimeMillis()))
+                        .publishOn(Schedulers.boundedElastic(), 4), output)
+                .doOnError(failure::set)
+                .doFinally(s -> closeQuietly(output))
+                .subscribe(DataBufferUtils.releaseConsumer(), e -> {});
+        GracefulDeserializationProblemHandler.ERROR_REPORTING_THREAD_LOCAL.remove();
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            final ResultsOfKGv3<E> result = readResults(parser, elementType, consumer);
+            rethrowFailure(failure);
+            final long end = lastByteReceivedAt.get();
+            result.setTransferDurationInMs((end > 0 ? end : System.currentTimeMillis()) - start);
+            result.setPayloadInBytes(receivedBytes.get());
+            return result;
+        } catch (IOException e) {
+            rethrowFailure(failure);
+            throw new UncheckedIOException(e);
+        } finally {
+            subscription.dispose();
+            closeQuietly(input);
+            GracefulDeserializationProblemHandler.ERROR_REPORTING_THREAD_LOCAL.remove();
+        }
+    }
+
+    private <E> ResultsOfKGv3<E> readResults(JsonParser parser, Class<E> elementType, Consumer<E> consumer) throws IOException {
+        final ResultsOfKGv3<E> result = new ResultsOfKGv3<>();
+        result.setErrors(new ErrorReport());
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            //Empty response - this happens e.g. if the request has failed
+            return result;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "data":
+                    if (value == JsonToken.START_ARRAY) {
+                        int index = 0;
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            final E instance = objectMapper.readValue(parser, elementType);
+                            GracefulDeserializationProblemHandler.parsingErrorHandler(instance, index++, result.getErrors());
+                            if (instance != null) {
+                                consumer.accept(instance);
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "total":
+                    result.setTotal(readInteger(parser));
+                    break;
+                case "from":
+                    result.setFrom(readInteger(parser));
+                    break;
+                case "size":
+                    result.setSize(readInteger(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private Integer readInteger(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsInt();
+    }
+
+    private void rethrowFailure(AtomicReference<Throwable> failure) {
+        final Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            //There is nothing we can do about it
+        }
+    }
 }
@@ -23,6 +23,7 @@
 
 package eu.ebrains.kg.search.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.ebrains.kg.search.model.DataStage;
 import eu.ebrains.kg.search.model.DatabaseScope;
 import org.slf4j.Logger;
@@ -43,8 +44,8 @@ public class KGV2ServiceClient extends KGServiceClient {
     private final String kgCoreEndpoint;
 
 
-    public KGV2ServiceClient(@Qualifier("asServiceAccount") WebClient serviceAccountWebClient, @Qualifier("asUser") WebClient userWebClient, @Value("${kgquery.endpoint:@null}") String kgQueryEndpoint, @Value("${kgcore.endpoint}") String kgCoreEndpoint) {
-        super(serviceAccountWebClient, userWebClient);
+    public KGV2ServiceClient(@Qualifier("asServiceAccount") WebClient serviceAccountWebClient, @Qualifier("asUser") WebClient userWebClient, ObjectMapper objectMapper, @Value("${kgquery.endpoint:@null}") String kgQueryEndpoint, @Value("${kgcore.endpoint}") String kgCoreEndpoint) {
+        super(serviceAccountWebClient, userWebClient, objectMapper);
         this.kgQueryEndpoint = kgQueryEndpoint;
         this.kgCoreEndpoint = kgCoreEndpoint;
     }
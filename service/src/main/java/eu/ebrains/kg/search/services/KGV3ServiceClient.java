@@ -23,9 +23,12 @@
 
 package eu.ebrains.kg.search.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -35,14 +38,19 @@ import org.springframework.web.reactive.function.client.WebClientResponseExcepti
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
 public class KGV3ServiceClient extends KGServiceClient{
+    private final static ParameterizedTypeReference<Map<String, Object>> JSON_OBJECT = new ParameterizedTypeReference<>() {
+    };
+
     private final String kgCoreEndpoint;
 
-    public KGV3ServiceClient(@Qualifier("asServiceAccount") WebClient serviceAccountWebClient, @Qualifier("asUser") WebClient userWebClient, @Value("${kgcore.endpoint}") String kgCoreEndpoint) {
-        super(serviceAccountWebClient, userWebClient);
+    public KGV3ServiceClient(@Qualifier("asServiceAccount") WebClient serviceAccountWebClient, @Qualifier("asUser") WebClient userWebClient, ObjectMapper objectMapper, @Value("${kgcore.endpoint}") String kgCoreEndpoint) {
+        super(serviceAccountWebClient, userWebClient, objectMapper);
         this.kgCoreEndpoint = kgCoreEndpoint;
     }
 
@@ -56,6 +64,11 @@ public class KGV3ServiceClient extends KGServiceClient{
         return executeCallForIndexing(clazz, url);
     }
 
+    public <E> ResultsOfKGv3<E> executeQueryForIndexingStreamed(Class<E> sourceType, DataStage dataStage, String queryId, int from, int size, Consumer<E> consumer) {
+        String url = String.format("%s/queries/%s/instances?stage=%s&from=%d&size=%d", kgCoreEndpoint, queryId, dataStage, from, size);
+        return executeStreamingCallForIndexing(sourceType, url, consumer);
+    }
+
     public <T> T executeQueryForIndexing(Class<T> clazz, DataStage dataStage, String queryId, int from, int size, Map<String, String> params) {
         StringBuilder p = new StringBuilder();
         for (Map.Entry<String, String> param : params.entrySet()) {
@@ -79,10 +92,33 @@ public class KGV3ServiceClient extends KGServiceClient{
         }
     }
 
-    @SuppressWarnings("java:S3740")
-    public Map getInstance(String id, DataStage dataStage, boolean asServiceAccount) { 
-        String url = String.format("%s/instances/%s?stage=%s&returnIncomingLinks=true", kgCoreEndpoint, id, dataStage);
-        return executeCallForInstance(Map.class, url, asServiceAccount);
+    public Map<String, Object> getInstance(String id, DataStage dataStage, boolean asServiceAccount) {
+        String url = String.format("%s/instances/%s?stage=%s&returnIncomingLinks=false&returnEmbedded=false&returnAlternatives=false", kgCoreEndpoint, id, dataStage);
+        WebClient webClient = asServiceAccount ? this.serviceAccountWebClient : this.userWebClient;
+        return webClient.get()
+                .uri(url)
+                .headers(h -> h.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE))
+                .retrieve()
+                .bodyToMono(JSON_OBJECT)
+                .block();
+    }
+
+    /**
+     * Reads the metadata (without payload) of multiple instances in one call - the result is keyed by the requested id.
+     */
+    public Map<String, Object> getInstancesByIds(List<String> ids, DataStage dataStage, boolean asServiceAccount) {
+        String url = String.format("%s/instancesByIds?stage=%s&returnPayload=false&returnEmbedded=false&returnAlternatives=false", kgCoreEndpoint, dataStage);
+        WebClient webClient = asServiceAccount ? this.serviceAccountWebClient : this.userWebClient;
+        return webClient.post()
+                .uri(url)
+                .body(BodyInserters.fromValue(ids))
+                .headers(h -> {
+                    h.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+                    h.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+                })
+                .retrieve()
+                .bodyToMono(JSON_OBJECT)
+                .block();
     }
 
     public void uploadQuery(String queryId, String payload) {
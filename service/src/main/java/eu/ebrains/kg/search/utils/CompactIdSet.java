@@ -0,0 +1,345 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.utils;
+
+import java.util.*;
+
+/**
+ * A set of ids specialized for UUIDs - which make up almost all of the ids handled during indexing. A UUID is stored as
+ * two longs in an open addressing hash table (instead of a string of 36 characters wrapped in a hash map entry). The
+ * prefixed variants of the UUIDs (e.g. "Dataset/uuid") are stored in a table per prefix, so the prefix is only kept
+ * once. Any other id is kept as it is.
+ * <p>
+ * Only UUIDs in their canonical (lower case) form are stored as longs, so the ids are returned exactly as they were
+ * added. The set is not thread-safe and its iterators don't support the removal of ids.
+ */
+public class CompactIdSet extends AbstractSet<String> {
+
+    private static final int UUID_LENGTH = 36;
+
+    private final UUIDTable uuids = new UUIDTable();
+    private final Map<String, UUIDTable> prefixedUUIDs = new HashMap<>();
+    private final Set<String> otherIds = new HashSet<>();
+
+    public CompactIdSet() {
+    }
+
+    public CompactIdSet(Collection<String> ids) {
+        addAll(ids);
+    }
+
+    @Override
+    public boolean add(String id) {
+        if (id == null) {
+            return false;
+        }
+        if (isCanonicalUUID(id)) {
+            final int offset = id.length() - UUID_LENGTH;
+            final long mostSigBits = getMostSigBits(id, offset);
+            final long leastSigBits = getLeastSigBits(id, offset);
+            if (offset == 0) {
+                return uuids.add(mostSigBits, leastSigBits);
+            }
+            return prefixedUUIDs.computeIfAbsent(id.substring(0, offset), k -> new UUIDTable()).add(mostSigBits, leastSigBits);
+        }
+        return otherIds.add(id);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> ids) {
+        if (ids instanceof CompactIdSet) {
+            final CompactIdSet other = (CompactIdSet) ids;
+            boolean changed = uuids.addAll(other.uuids);
+            for (Map.Entry<String, UUIDTable> e : other.prefixedUUIDs.entrySet()) {
+                changed |= prefixedUUIDs.computeIfAbsent(e.getKey(), k -> new UUIDTable()).addAll(e.getValue());
+            }
+            return otherIds.addAll(other.otherIds) || changed;
+        }
+        return super.addAll(ids);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        final String id = (String) o;
+        if (isCanonicalUUID(id)) {
+            final int offset = id.length() - UUID_LENGTH;
+            final UUIDTable table = offset == 0 ? uuids : prefixedUUIDs.get(id.substring(0, offset));
+            return table != null && table.contains(getMostSigBits(id, offset), getLeastSigBits(id, offset));
+        }
+        return otherIds.contains(id);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        final String id = (String) o;
+        if (isCanonicalUUID(id)) {
+            final int offset = id.length() - UUID_LENGTH;
+            final UUIDTable table = offset == 0 ? uuids : prefixedUUIDs.get(id.substring(0, offset));
+            return table != null && table.remove(getMostSigBits(id, offset), getLeastSigBits(id, offset));
+        }
+        return otherIds.remove(id);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> ids) {
+        boolean changed = false;
+        for (Object id : ids) {
+            changed |= remove(id);
+        }
+        return changed;
+    }
+
+    @Override
+    public int size() {
+        int size = uuids.size + otherIds.size();
+        for (UUIDTable table : prefixedUUIDs.values()) {
+            size += table.size;
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        final List<Iterator<String>> iterators = new ArrayList<>();
+        iterators.add(uuids.iterator(""));
+        prefixedUUIDs.forEach((prefix, table) -> iterators.add(table.iterator(prefix)));
+        iterators.add(Collections.unmodifiableSet(otherIds).iterator());
+        final Iterator<Iterator<String>> remaining = iterators.iterator();
+        return new Iterator<>() {
+            private Iterator<String> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && remaining.hasNext()) {
+                    current = remaining.next();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * @return true if the id is a canonical UUID - either as it is or with a prefix ending with a slash
+     */
+    private static boolean isCanonicalUUID(String id) {
+        final int offset = id.length() - UUID_LENGTH;
+        if (offset < 0 || (offset > 0 && id.charAt(offset - 1) != '/')) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            final char c = id.charAt(offset + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getMostSigBits(String id, int offset) {
+        return parseHex(id, offset, offset + 8) << 32 | parseHex(id, offset + 9, offset + 13) << 16 | parseHex(id, offset + 14, offset + 18);
+    }
+
+    private static long getLeastSigBits(String id, int offset) {
+        return parseHex(id, offset + 19, offset + 23) << 48 | parseHex(id, offset + 24, offset + 36);
+    }
+
+    private static long parseHex(String id, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = (value << 4) | Character.digit(id.charAt(i), 16);
+        }
+        return value;
+    }
+
+    /**
+     * An open addressing hash table (with linear probing) of UUIDs stored as two longs. The empty slots are marked
+     * with zeros - the zero UUID is therefore tracked separately.
+     */
+    private static class UUIDTable {
+        private long[] slots = new long[2 * 16];
+        private int size;
+        private boolean containsZero;
+
+        private boolean add(long mostSigBits, long leastSigBits) {
+            if (mostSigBits == 0 && leastSigBits == 0) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                size++;
+                return true;
+            }
+            if ((size + 1) * 4 > (slots.length / 2) * 3) {
+                resize();
+            }
+            if (!insert(slots, mostSigBits, leastSigBits)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private boolean addAll(UUIDTable other) {
+            boolean changed = other.containsZero && add(0, 0);
+            for (int i = 0; i < other.slots.length; i += 2) {
+                if (other.slots[i] != 0 || other.slots[i + 1] != 0) {
+                    changed |= add(other.slots[i], other.slots[i + 1]);
+                }
+            }
+            return changed;
+        }
+
+        private boolean contains(long mostSigBits, long leastSigBits) {
+            if (mostSigBits == 0 && leastSigBits == 0) {
+                return containsZero;
+            }
+            final int mask = slots.length / 2 - 1;
+            for (int slot = hash(mostSigBits, leastSigBits) & mask; ; slot = (slot + 1) & mask) {
+                final long m = slots[2 * slot];
+                final long l = slots[2 * slot + 1];
+                if (m == 0 && l == 0) {
+                    return false;
+                }
+                if (m == mostSigBits && l == leastSigBits) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean remove(long mostSigBits, long leastSigBits) {
+            if (mostSigBits == 0 && leastSigBits == 0) {
+                if (!containsZero) {
+                    return false;
+                }
+                containsZero = false;
+                size--;
+                return true;
+            }
+            final int mask = slots.length / 2 - 1;
+            int gap = hash(mostSigBits, leastSigBits) & mask;
+            while (slots[2 * gap] != mostSigBits || slots[2 * gap + 1] != leastSigBits) {
+                if (slots[2 * gap] == 0 && slots[2 * gap + 1] == 0) {
+                    return false;
+                }
+                gap = (gap + 1) & mask;
+            }
+            //The following entries of the cluster are shifted back into the gap if it is on their probing sequence - so no entry becomes unreachable.
+            for (int slot = (gap + 1) & mask; slots[2 * slot] != 0 || slots[2 * slot + 1] != 0; slot = (slot + 1) & mask) {
+                final int home = hash(slots[2 * slot], slots[2 * slot + 1]) & mask;
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    slots[2 * gap] = slots[2 * slot];
+                    slots[2 * gap + 1] = slots[2 * slot + 1];
+                    gap = slot;
+                }
+            }
+            slots[2 * gap] = 0;
+            slots[2 * gap + 1] = 0;
+            size--;
+            return true;
+        }
+
+        private static boolean insert(long[] slots, long mostSigBits, long leastSigBits) {
+            final int mask = slots.length / 2 - 1;
+            for (int slot = hash(mostSigBits, leastSigBits) & mask; ; slot = (slot + 1) & mask) {
+                final long m = slots[2 * slot];
+                final long l = slots[2 * slot + 1];
+                if (m == 0 && l == 0) {
+                    slots[2 * slot] = mostSigBits;
+                    slots[2 * slot + 1] = leastSigBits;
+                    return true;
+                }
+                if (m == mostSigBits && l == leastSigBits) {
+                    return false;
+                }
+            }
+        }
+
+        private void resize() {
+            final long[] resized = new long[slots.length * 2];
+            for (int i = 0; i < slots.length; i += 2) {
+                if (slots[i] != 0 || slots[i + 1] != 0) {
+                    insert(resized, slots[i], slots[i + 1]);
+                }
+            }
+            slots = resized;
+        }
+
+        private static int hash(long mostSigBits, long leastSigBits) {
+            final long h = (mostSigBits * 0x9E3779B97F4A7C15L) ^ leastSigBits;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private Iterator<String> iterator(String prefix) {
+            return new Iterator<>() {
+                private boolean zeroReturned = !containsZero;
+                private int position = nextPosition(0);
+
+                private int nextPosition(int from) {
+                    int i = from;
+                    while (i < slots.length && slots[i] == 0 && slots[i + 1] == 0) {
+                        i += 2;
+                    }
+                    return i;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return !zeroReturned || position < slots.length;
+                }
+
+                @Override
+                public String next() {
+                    if (!zeroReturned) {
+                        zeroReturned = true;
+                        return prefix + new UUID(0, 0);
+                    }
+                    if (position >= slots.length) {
+                        throw new NoSuchElementException();
+                    }
+                    final UUID uuid = new UUID(slots[position], slots[position + 1]);
+                    position = nextPosition(position + 2);
+                    return prefix + uuid;
+                }
+            };
+        }
+    }
+}
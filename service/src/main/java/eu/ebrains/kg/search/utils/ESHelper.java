@@ -27,6 +27,8 @@ import eu.ebrains.kg.search.model.DataStage;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
+import java.util.regex.Pattern;
+
 @NoArgsConstructor(access= AccessLevel.PRIVATE)
 public class ESHelper {
 
@@ -35,10 +37,38 @@ public class ESHelper {
 
     private final static String INDEX_SUFFIX_IDENTIFIERS = "identifiers";
 
+    private final static String INDEX_INDEXING_STATE = "indexing_state";
+
+    private final static String INDEX_PREFIX_GENERATION = "generation_";
+
     private static String getIndexPrefix(DataStage dataStage) {
         return dataStage == DataStage.IN_PROGRESS ? INDEX_PREFIX_IN_PROGRESS : INDEX_PREFIX_PUBLICLY_RELEASED;
     }
 
+    /**
+     * The searchable and auto released indices are aliases pointing to a physical index generation. The generations
+     * are prefixed so they are not matched by the patterns of {@link #getIndexesForDocument(DataStage)} and
+     * {@link #getIndexesForSearch(DataStage)} while they are built.
+     */
+    public static String getIndexGeneration(String alias, long version) {
+        return String.format("%s%s_v%d", INDEX_PREFIX_GENERATION, alias, version);
+    }
+
+    public static String getIndexGenerations(String alias) {
+        return String.format("%s%s_v*", INDEX_PREFIX_GENERATION, alias);
+    }
+
+    public static boolean isIndexGeneration(String index, String alias) {
+        return index.matches(String.format("%s%s_v\\d+", INDEX_PREFIX_GENERATION, Pattern.quote(alias)));
+    }
+
+    /**
+     * @return the alias of the given index generation or the index itself if it is not a generation
+     */
+    public static String getAliasOfIndex(String index) {
+        return index.startsWith(INDEX_PREFIX_GENERATION) ? index.substring(INDEX_PREFIX_GENERATION.length()).replaceFirst("_v\\d+$", "") : index;
+    }
+
     public static String getSearchableIndex(DataStage dataStage, Class<?> type, boolean temporary) {
         return String.format("%s%s_searchable_%s", temporary ? "temporary_" : "", getIndexPrefix(dataStage), MetaModelUtils.getIndexNameForClass(type));
     }
@@ -47,6 +77,10 @@ public class ESHelper {
         return String.format("%s_%s", getIndexPrefix(dataStage), INDEX_SUFFIX_IDENTIFIERS);
     }
 
+    public static String getIndexingStateIndex() {
+        return INDEX_INDEXING_STATE;
+    }
+
     public static String getIndexesForDocument(DataStage dataStage) {
         return String.format("%s_*", getIndexPrefix(dataStage));
     }
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A set of ids which is only kept in memory up to a limit - beyond it, the ids are sorted and spilled to compressed
+ * files on disk. The ids are read back in ascending {@link #ORDER} (duplicates removed) by merging the files, so
+ * iterating the set only keeps one id per file in memory.
+ * <p>
+ * The set has to be closed to remove its files.
+ */
+public class SortedIdSet implements Iterable<String>, Closeable {
+
+    /**
+     * The order of the code points - which is the order of the UTF-8 bytes elasticsearch sorts keywords by.
+     */
+    public static final Comparator<String> ORDER = (a, b) -> {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final int codePointA = a.codePointAt(i);
+            final int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) {
+                return Integer.compare(codePointA, codePointB);
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    private static final int DEFAULT_MAX_IDS_IN_MEMORY = 100000;
+
+    private final int maxIdsInMemory;
+    private final List<Path> files = new ArrayList<>();
+    private final List<Closeable> openReaders = new ArrayList<>();
+    private List<String> ids = new ArrayList<>();
+
+    public SortedIdSet() {
+        this(DEFAULT_MAX_IDS_IN_MEMORY);
+    }
+
+    public SortedIdSet(int maxIdsInMemory) {
+        this.maxIdsInMemory = Math.max(1, maxIdsInMemory);
+    }
+
+    public static SortedIdSet of(Collection<String> ids) {
+        final SortedIdSet set = new SortedIdSet();
+        set.addAll(ids);
+        return set;
+    }
+
+    public synchronized void add(String id) {
+        ids.add(id);
+        if (ids.size() >= maxIdsInMemory) {
+            spill();
+        }
+    }
+
+    public synchronized void addAll(Collection<String> ids) {
+        ids.forEach(this::add);
+    }
+
+    private void spill() {
+        try {
+            final Path file = Files.createTempFile("ids", ".gz");
+            files.add(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+                for (String id : sortedIds()) {
+                    out.writeBoolean(true);
+                    out.writeUTF(id);
+                }
+                out.writeBoolean(false);
+            }
+            ids = new ArrayList<>();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Wasn't able to spill the ids to disk", e);
+        }
+    }
+
+    private List<String> sortedIds() {
+        ids.sort(ORDER);
+        return ids;
+    }
+
+    /**
+     * @return the ids in ascending {@link #ORDER} without duplicates. The set must not be modified while iterating.
+     */
+    @Override
+    public synchronized Iterator<String> iterator() {
+        final PriorityQueue<PeekingIterator> heads = new PriorityQueue<>((a, b) -> ORDER.compare(a.peek(), b.peek()));
+        addIfNotEmpty(heads, new PeekingIterator(sortedIds().iterator()));
+        for (Path file : files) {
+            addIfNotEmpty(heads, new PeekingIterator(read(file)));
+        }
+        return new Iterator<>() {
+            private String last;
+
+            @Override
+            public boolean hasNext() {
+                while (!heads.isEmpty() && heads.peek().peek().equals(last)) {
+                    addIfNotEmpty(heads, heads.poll().skip());
+                }
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final PeekingIterator head = heads.poll();
+                last = head.peek();
+                addIfNotEmpty(heads, head.skip());
+                return last;
+            }
+        };
+    }
+
+    private static void addIfNotEmpty(PriorityQueue<PeekingIterator> heads, PeekingIterator iterator) {
+        if (iterator.peek() != null) {
+            heads.add(iterator);
+        }
+    }
+
+    private Iterator<String> read(Path file) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))));
+            openReaders.add(in);
+            return new Iterator<>() {
+                private boolean hasNext = in.readBoolean();
+
+                @Override
+                public boolean hasNext() {
+                    return hasNext;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        final String id = in.readUTF();
+                        hasNext = in.readBoolean();
+                        if (!hasNext) {
+                            in.close();
+                        }
+                        return id;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(String.format("Wasn't able to read the ids from %s", file), e);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Wasn't able to read the ids from %s", file), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Closeable reader : openReaders) {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                //The file is removed anyway
+            }
+        }
+        openReaders.clear();
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+        files.clear();
+        ids = new ArrayList<>();
+    }
+
+    private static class PeekingIterator {
+        private final Iterator<String> iterator;
+        private String next;
+
+        private PeekingIterator(Iterator<String> iterator) {
+            this.iterator = iterator;
+            skip();
+        }
+
+        private String peek() {
+            return next;
+        }
+
+        private PeekingIterator skip() {
+            next = iterator.hasNext() ? iterator.next() : null;
+            return this;
+        }
+    }
+}
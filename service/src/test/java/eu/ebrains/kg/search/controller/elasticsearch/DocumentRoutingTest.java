@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.elasticsearch;
+
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.Project;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentRoutingTest {
+
+    @Test
+    void routesTheIdentifiersOfTheRegisteredInstances() {
+        final DocumentRouting routing = new DocumentRouting(10);
+        final Project project = new Project();
+        project.setId("abc");
+        project.setIdentifier(List.of("abc", "https://kg.ebrains.eu/api/instances/abc"));
+
+        routing.register(DataStage.RELEASED, "projects", List.of(project));
+
+        final DocumentRouting.Route route = routing.getRoute(DataStage.RELEASED, "https://kg.ebrains.eu/api/instances/abc");
+        assertEquals("projects", route.getIndex());
+        assertEquals("abc", route.getId());
+        assertSame(route, routing.getRoute(DataStage.RELEASED, "abc"));
+        assertNull(routing.getRoute(DataStage.IN_PROGRESS, "abc"));
+    }
+
+    @Test
+    void removesRoutes() {
+        final DocumentRouting routing = new DocumentRouting(10);
+        routing.register(DataStage.IN_PROGRESS, "abc", "projects", "abc");
+
+        routing.remove(DataStage.IN_PROGRESS, "abc");
+
+        assertNull(routing.getRoute(DataStage.IN_PROGRESS, "abc"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedRoutes() {
+        final DocumentRouting routing = new DocumentRouting(2);
+        routing.register(DataStage.RELEASED, "a", "projects", "a");
+        routing.register(DataStage.RELEASED, "b", "projects", "b");
+        routing.getRoute(DataStage.RELEASED, "a");
+
+        routing.register(DataStage.RELEASED, "c", "projects", "c");
+
+        assertNotNull(routing.getRoute(DataStage.RELEASED, "a"));
+        assertNull(routing.getRoute(DataStage.RELEASED, "b"));
+        assertNotNull(routing.getRoute(DataStage.RELEASED, "c"));
+    }
+}
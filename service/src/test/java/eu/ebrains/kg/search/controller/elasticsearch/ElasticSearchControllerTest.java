@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.elasticsearch;
+
+import eu.ebrains.kg.search.controller.indexing.AdaptiveBulkSizing;
+import eu.ebrains.kg.search.controller.mapping.MappingController;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.ErrorReport;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.Project;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.Value;
+import eu.ebrains.kg.search.services.ESServiceClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElasticSearchControllerTest {
+
+    private static final Pattern FINGERPRINT = Pattern.compile(String.format("\"%s\":\"([^\"]+)\"", MappingController.FINGERPRINT));
+
+    /**
+     * Keeps the written documents in memory and reports their fingerprints like elasticsearch would.
+     */
+    private static class InMemoryESServiceClient extends ESServiceClient {
+        private final Map<String, String> fingerprints = new HashMap<>();
+        private final List<String> bulks = new ArrayList<>();
+
+        private InMemoryESServiceClient() {
+            super(null, "http://localhost:9200", 1, 0, 0);
+        }
+
+        @Override
+        public Map<String, String> getDocValueOfDocuments(String index, List<String> ids, String field) {
+            final Map<String, String> result = new HashMap<>();
+            ids.stream().filter(fingerprints::containsKey).forEach(id -> result.put(id, fingerprints.get(id)));
+            return result;
+        }
+
+        @Override
+        public ErrorReport updateIndex(String index, List<StringBuilder> operationsList, BulkListener listener) {
+            for (StringBuilder operations : operationsList) {
+                final String[] lines = operations.toString().split("\n");
+                for (int i = 0; i + 1 < lines.length; i += 2) {
+                    final String id = lines[i].replaceAll(".*\"_id\" : \"([^\"]+)\".*", "$1");
+                    final Matcher fingerprint = FINGERPRINT.matcher(lines[i + 1]);
+                    if (fingerprint.find()) {
+                        fingerprints.put(id, fingerprint.group(1));
+                    }
+                }
+                bulks.add(operations.toString());
+            }
+            return new ErrorReport();
+        }
+    }
+
+    private final InMemoryESServiceClient esServiceClient = new InMemoryESServiceClient();
+
+    private ElasticSearchController createController(boolean skipUnchangedDocuments) {
+        final AdaptiveBulkSizing adaptiveBulkSizing = new AdaptiveBulkSizing(false, 30000, 10000, 50000000, 10, 5000, 100000, 10000000);
+        return new ElasticSearchController(esServiceClient, adaptiveBulkSizing, new DocumentRouting(10), skipUnchangedDocuments);
+    }
+
+    private static Project createProject(String id, String title) {
+        final Project project = new Project();
+        project.setId(id);
+        project.setTitle(new Value<>(title));
+        return project;
+    }
+
+    @Test
+    void skipsUnchangedDocuments() {
+        final ElasticSearchController controller = createController(true);
+        controller.updateSearchIndex(List.of(createProject("a", "A"), createProject("b", "B")), Project.class, DataStage.RELEASED, false);
+
+        controller.updateSearchIndex(List.of(createProject("a", "A"), createProject("b", "B changed")), Project.class, DataStage.RELEASED, false);
+
+        assertEquals(2, esServiceClient.bulks.size());
+        assertFalse(esServiceClient.bulks.get(1).contains("\"_id\" : \"a\""));
+        assertTrue(esServiceClient.bulks.get(1).contains("\"_id\" : \"b\""));
+        assertEquals(Map.of("Project", 1L), controller.getSkippedUnchangedDocuments());
+    }
+
+    @Test
+    void doesNotWriteAnythingIfNothingHasChanged() {
+        final ElasticSearchController controller = createController(true);
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, false);
+
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, false);
+
+        assertEquals(1, esServiceClient.bulks.size());
+    }
+
+    @Test
+    void writesAllDocumentsToTemporaryIndices() {
+        final ElasticSearchController controller = createController(true);
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, false);
+
+        //A temporary index is empty - so there is nothing to compare with
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, true);
+
+        assertEquals(2, esServiceClient.bulks.size());
+    }
+
+    @Test
+    void writesAllDocumentsIfNotSkippingUnchangedDocuments() {
+        final ElasticSearchController controller = createController(false);
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, false);
+
+        controller.updateSearchIndex(List.of(createProject("a", "A")), Project.class, DataStage.RELEASED, false);
+
+        assertEquals(2, esServiceClient.bulks.size());
+        assertFalse(esServiceClient.bulks.get(0).contains(MappingController.FINGERPRINT));
+    }
+}
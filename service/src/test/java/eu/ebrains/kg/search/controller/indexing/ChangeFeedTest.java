@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.indexing;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.ebrains.kg.search.model.source.openMINDSv3.InstanceChangeV3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest {
+
+    private static final String LAST_RELEASED_AT_PATH = "https://core.kg.ebrains.eu/vocab/meta/lastReleasedAt";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String QUERY = "{" +
+            "\"@context\": {\"query\": \"https://schema.hbp.eu/myQuery/\"}," +
+            "\"meta\": {\"type\": \"https://openminds.ebrains.eu/core/File\", \"name\": \"Files\"}," +
+            "\"structure\": [" +
+            "  {\"propertyName\": \"query:id\", \"path\": \"@id\"}," +
+            "  {\"propertyName\": \"query:name\", \"path\": \"https://openminds.ebrains.eu/vocab/name\", \"sort\": true}," +
+            "  {\"propertyName\": \"query:type\", \"path\": \"@type\", \"required\": true, \"filter\": {\"op\": \"EQUALS\", \"value\": \"File\"}}," +
+            "  {\"propertyName\": \"query:format\", \"path\": [\"https://openminds.ebrains.eu/vocab/format\", \"https://openminds.ebrains.eu/vocab/name\"]}," +
+            "  {\"propertyName\": \"query:repository\", \"path\": \"https://openminds.ebrains.eu/vocab/fileRepository\", \"ensureOrder\": true, \"structure\": [" +
+            "    {\"propertyName\": \"query:id\", \"path\": \"@id\"}," +
+            "    {\"propertyName\": \"query:iri\", \"path\": \"https://openminds.ebrains.eu/vocab/IRI\", \"required\": true}" +
+            "  ]}" +
+            "]}";
+
+    @Test
+    void createChangesQueryKeepsTheQualifyingElementsOnly() throws Exception {
+        final JsonNode query = objectMapper.readTree(ChangeFeed.createChangesQuery(QUERY));
+
+        assertEquals("Change feed query", query.get("meta").get("name").asText());
+        assertEquals("https://openminds.ebrains.eu/core/File", query.get("meta").get("type").asText());
+        assertEquals(List.of("query:lastReleasedAt", "query:id", "query:type", "query:lastReleasedAt1", "query:repository"), getPropertyNames(query.get("structure")));
+        //The filter defines which instances are part of the query - so it has to be kept as it is
+        assertEquals("EQUALS", query.get("structure").get(2).get("filter").get("op").asText());
+    }
+
+    @Test
+    void createChangesQueryReportsTheReleaseOfEveryHop() throws Exception {
+        final JsonNode query = objectMapper.readTree(ChangeFeed.createChangesQuery(QUERY));
+
+        final JsonNode formatRelease = query.get("structure").get(3);
+        assertEquals("https://openminds.ebrains.eu/vocab/format", formatRelease.get("path").get(0).asText());
+        assertEquals(LAST_RELEASED_AT_PATH, formatRelease.get("path").get(1).asText());
+        assertEquals(LAST_RELEASED_AT_PATH, query.get("structure").get(0).get("path").asText());
+    }
+
+    @Test
+    void createChangesQueryReducesNestedStructures() throws Exception {
+        final JsonNode query = objectMapper.readTree(ChangeFeed.createChangesQuery(QUERY));
+
+        final JsonNode repository = query.get("structure").get(4);
+        assertFalse(repository.has("ensureOrder"));
+        //The id is only required on the root level - the nested instances are identified by their release date
+        assertEquals(List.of("query:lastReleasedAt", "query:iri"), getPropertyNames(repository.get("structure")));
+    }
+
+    @Test
+    void latestReleaseIsTheMaximumOfAllLinkedReleases() throws Exception {
+        final InstanceChangeV3 instance = objectMapper.readValue("{" +
+                "\"id\": \"2b2a4bd9-5e29-4d0a-8b47-37e4f4a8e6c7\"," +
+                "\"lastReleasedAt\": \"2021-03-01T10:00:00.000Z\"," +
+                "\"lastReleasedAt1\": [\"2021-01-01T10:00:00.000Z\", \"2021-05-01T10:00:00.000Z\"]," +
+                "\"repository\": [{\"lastReleasedAt\": \"2021-04-01T10:00:00.000Z\", \"iri\": \"2022-01-01T10:00:00.000Z\"}]" +
+                "}", InstanceChangeV3.class);
+
+        assertEquals(objectMapper.getDateFormat().parse("2021-05-01T10:00:00.000Z"), instance.getLatestRelease());
+    }
+
+    @Test
+    void latestReleaseOfAnUnreleasedInstanceIsNull() throws Exception {
+        final InstanceChangeV3 instance = objectMapper.readValue("{\"id\": \"2b2a4bd9-5e29-4d0a-8b47-37e4f4a8e6c7\", \"lastReleasedAt\": null, \"repository\": []}", InstanceChangeV3.class);
+
+        final Date latestRelease = instance.getLatestRelease();
+
+        assertNull(latestRelease);
+    }
+
+    private static List<String> getPropertyNames(JsonNode structure) {
+        final List<String> result = new ArrayList<>();
+        structure.forEach(e -> result.add(e.get("propertyName").asText()));
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.controller.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NestedAggregationsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void extendsTheTermsAggregationsOfNestedAggregations() throws Exception {
+        final JsonNode reverseNested = objectMapper.readTree("{\"parent\": {\"reverse_nested\": {}}}");
+        final JsonNode query = objectMapper.readTree("{\"aggs\": {" +
+                "\"contributors\": {\"aggs\": {\"inner\": {\"nested\": {\"path\": \"contributors\"}, \"aggs\": {" +
+                "  \"keywords\": {\"terms\": {\"field\": \"contributors.value.keyword\"}}," +
+                "  \"total\": {\"value_count\": {\"field\": \"contributors.value.keyword\"}}" +
+                "}}}}," +
+                "\"types\": {\"terms\": {\"field\": \"type.value\"}}," +
+                "\"filtered\": {\"filter\": {\"bool\": {\"must\": [{\"nested\": {\"path\": \"x\"}, \"aggs\": {\"a\": {\"terms\": {}}}}]}}}" +
+                "}}");
+
+        NestedAggregations.addReverseNested(query, reverseNested);
+
+        assertSame(reverseNested, query.at("/aggs/contributors/aggs/inner/aggs/keywords/aggs"));
+        assertTrue(query.at("/aggs/contributors/aggs/inner/aggs/total/aggs").isMissingNode());
+        //Terms aggregations which are not part of a nested aggregation remain unchanged
+        assertTrue(query.at("/aggs/types/aggs").isMissingNode());
+        //Nested aggregations are found in arrays as well
+        assertSame(reverseNested, query.at("/aggs/filtered/filter/bool/must/0/aggs/a/aggs"));
+    }
+
+    @Test
+    void leavesQueriesWithoutNestedAggregationsUnchanged() throws Exception {
+        final JsonNode query = objectMapper.readTree("{\"query\": {\"query_string\": {\"query\": \"brain\"}}, \"aggs\": {\"types\": {\"terms\": {\"field\": \"type.value\"}}}}");
+        final JsonNode expected = query.deepCopy();
+
+        NestedAggregations.addReverseNested(query, objectMapper.readTree("{\"parent\": {\"reverse_nested\": {}}}"));
+
+        assertEquals(expected, query);
+    }
+}
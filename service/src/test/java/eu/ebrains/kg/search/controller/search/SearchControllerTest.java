@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.services.ESServiceClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchControllerTest {
+
+    private static final String QUERY = "{\"query\":{\"match_all\":{}},\"aggs\":{\"authors\":{\"nested\":{\"path\":\"authors\"},\"aggs\":{\"inner\":{\"terms\":{\"field\":\"authors.value.keyword\"}}}}}}";
+    private static final String RESPONSE = "{\"hits\":{\"total\":{\"value\":1},\"hits\":[{\"_id\":\"1\",\"_source\":{\"title\":\"A \\\"title\\\"\"}}]}," +
+            "\"aggregations\":{\"authors\":{\"doc_count\":10,\"inner\":{\"buckets\":[" +
+            "{\"key\":\"a\",\"doc_count\":6,\"temporary_parent_doc_count\":{\"doc_count\":2}}," +
+            "{\"key\":\"b\",\"doc_count\":4,\"temporary_parent_doc_count\":{\"doc_count\":1}}]}}}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Stands in for elasticsearch - it answers every search with the same response after the configured latency.
+     */
+    private HttpServer elasticsearch;
+    private ExecutorService elasticsearchThreads;
+    private volatile long latencyInMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicReference<String> lastRequest = new AtomicReference<>();
+    private SearchController searchController;
+
+    @BeforeEach
+    void startElasticsearch() throws IOException {
+        elasticsearch = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1000);
+        elasticsearchThreads = Executors.newCachedThreadPool();
+        elasticsearch.setExecutor(elasticsearchThreads);
+        elasticsearch.createContext("/", this::respond);
+        elasticsearch.start();
+        final ESServiceClient esServiceClient = new ESServiceClient(WebClient.builder().build(), String.format("http://localhost:%d", elasticsearch.getAddress().getPort()), 2, 5, 500);
+        //The in progress searches are not cached - so the result cache is not needed
+        searchController = new SearchController(esServiceClient, null, null, null);
+    }
+
+    @AfterEach
+    void stopElasticsearch() {
+        elasticsearch.stop(0);
+        elasticsearchThreads.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            lastRequest.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            Thread.sleep(latencyInMs);
+            final byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Test
+    void rewritesTheNestedDocCounts() throws IOException {
+        final JsonNode result = objectMapper.readTree(searchController.getResult(QUERY, DataStage.IN_PROGRESS).block());
+
+        assertTrue(objectMapper.readTree(lastRequest.get()).at("/aggs/authors/aggs/inner/aggs/temporary_parent_doc_count/reverse_nested").isObject());
+        assertEquals("A \"title\"", result.at("/hits/hits/0/_source/title").asText());
+        assertEquals(3, result.at("/aggregations/authors/doc_count").asInt());
+        assertEquals(2, result.at("/aggregations/authors/inner/buckets/0/doc_count").asInt());
+        assertEquals(1, result.at("/aggregations/authors/inner/buckets/1/doc_count").asInt());
+        assertTrue(result.at("/aggregations/authors/inner/buckets/0/temporary_parent_doc_count").isMissingNode());
+    }
+
+    @Test
+    void doesNotNeedAThreadPerSearch() throws InterruptedException {
+        latencyInMs = 500;
+        final int searches = 200;
+        final CountDownLatch done = new CountDownLatch(searches);
+        final AtomicInteger failures = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+
+        //All searches are started by the same thread - they can only run concurrently if none of them blocks it
+        for (int i = 0; i < searches; i++) {
+            searchController.getResult(QUERY, DataStage.IN_PROGRESS).subscribe(r -> done.countDown(), e -> {
+                failures.incrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertTrue(maxInFlight.get() >= 10, String.format("Only %d searches were sent to elasticsearch at the same time", maxInFlight.get()));
+        //One search after the other would take 100 seconds
+        assertTrue(System.currentTimeMillis() - start < searches * latencyInMs / 10, String.format("The searches took %dms", System.currentTimeMillis() - start));
+    }
+}
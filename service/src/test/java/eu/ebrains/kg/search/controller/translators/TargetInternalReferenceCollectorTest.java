@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.translators;
+
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.Project;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.Children;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.TargetInternalReference;
+import eu.ebrains.kg.search.model.target.elasticsearch.instances.commons.Value;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TargetInternalReferenceCollectorTest {
+
+    private static final TargetInternalReference A = new TargetInternalReference("a", "A");
+    private static final TargetInternalReference B = new TargetInternalReference("b", "B");
+    private static final TargetInternalReference C = new TargetInternalReference("c", "C");
+    private static final TargetInternalReference D = new TargetInternalReference("d", "D");
+
+    @SuppressWarnings("unused")
+    private static class Nested {
+        private String title = "title";
+        private Value<String> description = new Value<>("description");
+        private Children<TargetInternalReference> child;
+        private List<Children<TargetInternalReference>> children;
+        private Map<String, Object> byName;
+        private TargetInternalReference[] array;
+        private Object any;
+        private Nested next;
+        private transient TargetInternalReference ignored = new TargetInternalReference("transient", "transient");
+        private static final TargetInternalReference STATIC = new TargetInternalReference("static", "static");
+    }
+
+    @Test
+    void collectsTheReferencesOfATargetInstance() {
+        final Project project = new Project();
+        project.setTitle(new Value<>("Project"));
+        project.setDataset(List.of(A, B));
+        project.setModels(Collections.singletonList(C));
+
+        assertEquals(Set.of(A, B, C), new HashSet<>(TargetInternalReferenceCollector.collect(project)));
+    }
+
+    @Test
+    void descendsIntoNestedObjectsCollectionsMapsAndArrays() {
+        final Nested nested = new Nested();
+        nested.child = new Children<>(A);
+        nested.children = List.of(new Children<>(B));
+        nested.byName = Map.of("c", List.of(C));
+        nested.next = new Nested();
+        nested.next.array = new TargetInternalReference[]{D, null};
+        nested.next.any = A;
+
+        final List<TargetInternalReference> references = TargetInternalReferenceCollector.collect(nested);
+
+        assertEquals(5, references.size());
+        assertEquals(Set.of(A, B, C, D), new HashSet<>(references));
+    }
+
+    @Test
+    void skipsTransientAndStaticFields() {
+        assertTrue(TargetInternalReferenceCollector.collect(new Nested()).isEmpty());
+    }
+
+    @Test
+    void appendsToTheGivenCollector() {
+        final List<TargetInternalReference> collector = new ArrayList<>(List.of(A));
+        Helpers.collectAllTargetInternalReferences(new Children<>(List.of(B)), collector);
+        assertEquals(List.of(A, B), collector);
+    }
+
+    @Test
+    void toleratesMissingValues() {
+        assertTrue(TargetInternalReferenceCollector.collect(null).isEmpty());
+        assertTrue(TargetInternalReferenceCollector.collect(new Project()).isEmpty());
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.controller.translators;
+
+import com.sun.net.httpserver.HttpServer;
+import eu.ebrains.kg.search.model.DataStage;
+import eu.ebrains.kg.search.model.source.ResultsOfKGv3;
+import eu.ebrains.kg.search.services.DOICitationFormatter;
+import eu.ebrains.kg.search.utils.TranslationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslationControllerTest {
+
+    private static class Results extends ResultsOfKGv3<String> {
+    }
+
+    private static class TestTranslator extends Translator<String, String, Results> {
+        private final Function<String, String> translation;
+
+        private TestTranslator(Function<String, String> translation) {
+            this.translation = translation;
+        }
+
+        @Override
+        public String translate(String source, DataStage dataStage, boolean liveMode, DOICitationFormatter doiCitationFormatter) throws TranslationException {
+            if (source.startsWith("invalid")) {
+                throw new TranslationException(String.format("%s is invalid", source), source);
+            }
+            return translation.apply(source);
+        }
+
+        @Override
+        public Class<String> getSourceType() {
+            return String.class;
+        }
+
+        @Override
+        public Class<String> getTargetType() {
+            return String.class;
+        }
+
+        @Override
+        public Class<Results> getResultType() {
+            return Results.class;
+        }
+
+        @Override
+        public List<String> getQueryIds() {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Keeps the resolved citations - as the cache proxy of the application does.
+     */
+    private static class CachingDOICitationFormatter extends DOICitationFormatter {
+        private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+        private CachingDOICitationFormatter(String dataciteEndpoint) {
+            super(dataciteEndpoint);
+        }
+
+        @Override
+        public String getDOICitation(String doi, String style, String contentType) {
+            final String cached = cache.get(doi);
+            if (cached != null) {
+                return cached;
+            }
+            final String citation = super.getDOICitation(doi, style, contentType);
+            if (citation != null) {
+                cache.put(doi, citation);
+            }
+            return citation;
+        }
+    }
+
+    private static TargetInstancesResult<String> translate(int parallelism, Translator<String, String, Results> translator, List<String> sources) {
+        return translate(parallelism, null, translator, sources);
+    }
+
+    private static TargetInstancesResult<String> translate(int parallelism, DOICitationFormatter doiCitationFormatter, Translator<String, String, Results> translator, List<String> sources) {
+        final TranslationController translationController = new TranslationController(null, doiCitationFormatter, null, 1, parallelism, 2);
+        try {
+            final Results page = new Results();
+            page.setData(sources);
+            page.setFrom(0);
+            page.setSize(sources.size());
+            page.setTotal(sources.size());
+            return translationController.translateSourceInstances(translator, page, DataStage.RELEASED);
+        } finally {
+            translationController.shutdown();
+        }
+    }
+
+    @Test
+    void keepsTheOrderOfTheSourceInstances() {
+        final Random random = new Random(42);
+        final List<String> sources = IntStream.range(0, 200).mapToObj(i -> String.format("instance%03d", i)).collect(Collectors.toList());
+        //The translations finish in random order
+        final Map<String, Integer> delays = sources.stream().collect(Collectors.toMap(s -> s, s -> random.nextInt(3)));
+
+        final TargetInstancesResult<String> result = translate(4, new TestTranslator(s -> {
+            sleep(delays.get(s));
+            return s.toUpperCase();
+        }), sources);
+
+        assertEquals(sources.stream().map(String::toUpperCase).collect(Collectors.toList()), result.getTargetInstances());
+        assertNull(result.getErrors());
+    }
+
+    @Test
+    void reportsTheErrorsOfAllInstances() {
+        final List<String> sources = Arrays.asList("a", "invalid1", null, "skipped", "b", "invalid2", "broken");
+
+        final TargetInstancesResult<String> result = translate(3, new TestTranslator(s -> {
+            if (s.equals("broken")) {
+                throw new IllegalStateException("broken");
+            }
+            return s.equals("skipped") ? null : s;
+        }), sources);
+
+        assertEquals(Arrays.asList("a", "b"), result.getTargetInstances());
+        assertEquals(Set.of("invalid1", "invalid2", "unknown"), result.getErrors().keySet());
+        assertEquals(Collections.singletonList("invalid1 is invalid"), result.getErrors().get("invalid1"));
+        assertEquals(Collections.singletonList("Unexpected exception: broken"), result.getErrors().get("unknown"));
+    }
+
+    @Test
+    void translatesUpToTheConfiguredNumberOfInstancesConcurrently() {
+        final int parallelism = 4;
+        //Every translation waits for the others - which only succeeds if all of them run at the same time
+        final CountDownLatch running = new CountDownLatch(parallelism);
+
+        final TargetInstancesResult<String> result = translate(parallelism, new TestTranslator(s -> {
+            running.countDown();
+            try {
+                return running.await(10, TimeUnit.SECONDS) ? s : null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }), Arrays.asList("a", "b", "c", "d"));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), result.getTargetInstances());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void patchesTheMissingCitationsOfAPage() throws IOException {
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        //Stands in for the DOI resolvers - every DOI is resolved to a citation except the unknown one
+        final HttpServer stub = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stub.createContext("/", exchange -> {
+            final String doi = exchange.getRequestURI().getPath().substring(1);
+            requests.add(doi);
+            final byte[] body = String.format("Citation of %s", doi).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(doi.equals("unknown") ? 404 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+        try {
+            final String resolver = String.format("http://localhost:%d/", stub.getAddress().getPort());
+            final DOICitationFormatter doiCitationFormatter = new CachingDOICitationFormatter(resolver);
+            final List<String> sources = Arrays.asList("a", "b", "a", "none", "unknown", "c");
+
+            final TargetInstancesResult<String> result = translate(2, doiCitationFormatter, new TestTranslator(s -> s.equals("none") ? s : String.format("%s: %s", s, doiCitationFormatter.getDOICitation(resolver + s, "apa", "text/x-bibliography"))), sources);
+
+            assertEquals(Arrays.asList("a: Citation of a", "b: Citation of b", "a: Citation of a", "none", "unknown: null", "c: Citation of c"), result.getTargetInstances());
+            //Every missing citation of the page is requested once
+            assertEquals(Set.of("a", "b", "c", "unknown"), new HashSet<>(requests));
+            assertEquals(4, requests.size());
+        } finally {
+            stub.stop(0);
+        }
+    }
+}
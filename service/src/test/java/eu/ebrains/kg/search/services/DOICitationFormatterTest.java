@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DOICitationFormatterTest {
+
+    private static final String STYLE = "apa";
+    private static final String CONTENT_TYPE = "text/x-bibliography";
+
+    /**
+     * Stands in for datacite and the DOI resolvers - it answers the known paths and responds with 404 otherwise.
+     */
+    private HttpServer stub;
+    private final Map<String, String> responses = new HashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> acceptHeaders = Collections.synchronizedList(new ArrayList<>());
+    private DOICitationFormatter doiCitationFormatter;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stub.createContext("/", this::respond);
+        stub.start();
+        doiCitationFormatter = new DOICitationFormatter(getStubEndpoint());
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    private String getStubEndpoint() {
+        return String.format("http://localhost:%d", stub.getAddress().getPort());
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        final String request = exchange.getRequestURI().toString();
+        requests.add(request);
+        acceptHeaders.add(exchange.getRequestHeaders().getFirst("Accept"));
+        final String response = responses.get(request);
+        final byte[] body = (response != null ? response : "DOI not found").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(response != null ? 200 : 404, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    void resolvesEBRAINSDOIsViaDatacite() {
+        responses.put("/dois/10.25493/ABC-123?style=apa", " Doe, J. (2021). A dataset. EBRAINS.\n");
+
+        assertEquals("Doe, J. (2021). A dataset. EBRAINS.", doiCitationFormatter.getDOICitation("https://doi.org/10.25493/ABC-123", STYLE, CONTENT_TYPE));
+        assertEquals(Collections.singletonList("/dois/10.25493/ABC-123?style=apa"), requests);
+        assertEquals(Collections.singletonList(CONTENT_TYPE), acceptHeaders);
+    }
+
+    @Test
+    void resolvesOtherDOIsByContentNegotiation() {
+        responses.put("/10.1234/xyz", "Doe, J. (2020). An article.");
+
+        assertEquals("Doe, J. (2020). An article.", doiCitationFormatter.getDOICitation(getStubEndpoint() + "/10.1234/xyz", STYLE, CONTENT_TYPE));
+        assertEquals(Collections.singletonList("text/x-bibliography; style=apa"), acceptHeaders);
+    }
+
+    @Test
+    void returnsNoCitationForUnknownDOIs() {
+        assertNull(doiCitationFormatter.getDOICitation(getStubEndpoint() + "/10.1234/unknown", STYLE, CONTENT_TYPE));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void defersTheMissingCitations() {
+        responses.put("/dois/10.25493/ABC-123?style=apa", "Doe, J. (2021). A dataset. EBRAINS.");
+        final Set<DOICitationFormatter.Citation> missingCitations = new HashSet<>();
+
+        final String citation = DOICitationFormatter.deferMissingCitations(missingCitations, () -> doiCitationFormatter.getDOICitation("https://doi.org/10.25493/ABC-123", STYLE, CONTENT_TYPE));
+
+        assertNull(citation);
+        assertTrue(requests.isEmpty());
+        assertEquals(1, missingCitations.size());
+        final DOICitationFormatter.Citation missing = missingCitations.iterator().next();
+        assertEquals("https://doi.org/10.25493/ABC-123", missing.getDoi());
+        assertEquals(STYLE, missing.getStyle());
+        assertEquals(CONTENT_TYPE, missing.getContentType());
+        //Outside of the deferral, the citations are resolved again
+        assertEquals("Doe, J. (2021). A dataset. EBRAINS.", doiCitationFormatter.getDOICitation("https://doi.org/10.25493/ABC-123", STYLE, CONTENT_TYPE));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+package eu.ebrains.kg.search.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ESQueriesTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JsonNode json(String json) throws IOException {
+        return objectMapper.readTree(json.replace('\'', '"'));
+    }
+
+    @Test
+    void byIdentifier() throws IOException {
+        assertEquals(json("{'query':{'bool':{'must':[{'term':{'identifier':'https://kg.ebrains.eu/api/instances/123'}}]}}}"),
+                objectMapper.readTree(ESQueries.byIdentifier("https://kg.ebrains.eu/api/instances/123")));
+    }
+
+    @Test
+    void escapesTheValues() throws IOException {
+        final String identifier = "a \"quoted\" \\ back/slashed\nid\u0001";
+        final JsonNode query = objectMapper.readTree(ESQueries.byIdentifier(identifier));
+        assertEquals(identifier, query.at("/query/bool/must/0/term/identifier").asText());
+    }
+
+    @Test
+    void pointInTimePage() throws IOException {
+        final byte[] query = ESQueries.pointInTimePage(1000, "pit\"id", "1m", "Dataset", Arrays.asList("identifier", "type"), "id", Arrays.asList("abc", 42));
+        assertEquals(json("{'size':1000,'pit':{'id':'pit\\\"id','keep_alive':'1m'},'sort':[{'id':'asc'},{'_shard_doc':'asc'}]," +
+                        "'track_total_hits':false,'_source':['identifier','type']," +
+                        "'query':{'bool':{'must':[{'term':{'type.value':'Dataset'}}]}},'search_after':['abc',42]}"),
+                objectMapper.readTree(query));
+    }
+
+    @Test
+    void firstPointInTimePageWithoutSource() throws IOException {
+        final byte[] query = ESQueries.pointInTimePage(10, "pit", "1m", null, Collections.emptyList(), null, null);
+        assertEquals(json("{'size':10,'pit':{'id':'pit','keep_alive':'1m'},'sort':[{'_shard_doc':'asc'}],'track_total_hits':false,'_source':false}"),
+                objectMapper.readTree(query));
+    }
+
+    @Test
+    void paginatedFilesSkipsBlankTerms() throws IOException {
+        assertEquals(json("{'size':20,'sort':[{'_id':'asc'}],'search_after':['last'],'query':{'bool':{'must':[{'term':{'fileRepository':'repo'}}," +
+                        "{'term':{'groupingTypes.name.keyword':'folder'}}]}},'track_total_hits':true}"),
+                objectMapper.readTree(ESQueries.paginatedFiles("repo", "last", 20, " ", "folder")));
+        assertEquals(json("{'size':20,'sort':[{'_id':'asc'}],'query':{'bool':{'must':[{'term':{'fileRepository':'repo'}}]}},'track_total_hits':true}"),
+                objectMapper.readTree(ESQueries.paginatedFiles("repo", null, 20, null, null)));
+    }
+
+    @Test
+    void aggregationsOfFileRepositorySkipBlankAggregations() throws IOException {
+        final Map<String, String> aggs = new LinkedHashMap<>();
+        aggs.put("formats", "format.value.keyword");
+        aggs.put("groupingTypes", "");
+        assertEquals(json("{'size':0,'aggs':{'formats':{'terms':{'field':'format.value.keyword','size':1000000000}}}," +
+                        "'query':{'bool':{'must':[{'term':{'fileRepository':'repo'}}]}}}"),
+                objectMapper.readTree(ESQueries.aggregationsOfFileRepository("repo", aggs)));
+    }
+
+    @Test
+    void writesTheQueriesAsUTF8() throws IOException {
+        final List<Object> searchAfter = Collections.singletonList("\u00e9\u4e2d\ud83d\ude00");
+        final byte[] query = ESQueries.pointInTimePage(1, "pit", "1m", null, Collections.emptyList(), "id", searchAfter);
+        assertEquals(searchAfter.get(0), objectMapper.readTree(query).at("/search_after/0").asText());
+    }
+}
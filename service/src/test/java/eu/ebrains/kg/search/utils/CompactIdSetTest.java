@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactIdSetTest {
+
+    @Test
+    void containsTheAddedIdsOfAllKinds() {
+        final String uuid = UUID.randomUUID().toString();
+        final String prefixed = "https://kg.ebrains.eu/api/instances/" + UUID.randomUUID();
+        final CompactIdSet set = new CompactIdSet(List.of(uuid, prefixed, "some-other-id"));
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(uuid));
+        assertTrue(set.contains(prefixed));
+        assertTrue(set.contains("some-other-id"));
+        assertFalse(set.contains(UUID.randomUUID().toString()));
+        assertFalse(set.contains(uuid.toUpperCase()));
+        assertEquals(Set.of(uuid, prefixed, "some-other-id"), new HashSet<>(set));
+    }
+
+    @Test
+    void ignoresDuplicates() {
+        final String uuid = UUID.randomUUID().toString();
+        final CompactIdSet set = new CompactIdSet();
+
+        assertTrue(set.add(uuid));
+        assertFalse(set.add(uuid));
+        assertFalse(set.add(null));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void behavesLikeAHashSet() {
+        final Random random = new Random(42);
+        final List<String> prefixes = List.of("", "https://kg.ebrains.eu/api/instances/", "https://identifiers.org/");
+        final Set<String> expected = new HashSet<>();
+        final CompactIdSet set = new CompactIdSet();
+        for (int i = 0; i < 20000; i++) {
+            //A small pool of ids - so the ids are added and removed again and again
+            final String id = prefixes.get(random.nextInt(prefixes.size())) + new UUID(random.nextInt(50), random.nextInt(50));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                assertEquals(expected.add(id), set.add(id));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (String id : expected) {
+            assertTrue(set.contains(id));
+        }
+        assertEquals(expected, new HashSet<>(set));
+    }
+
+    @Test
+    void removeAll() {
+        final List<String> ids = List.of(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "other");
+        final CompactIdSet set = new CompactIdSet(ids);
+
+        assertTrue(set.removeAll(List.of(ids.get(0), "other", "unknown")));
+
+        assertEquals(Set.of(ids.get(1)), new HashSet<>(set));
+    }
+
+    @Test
+    void needsLessThanHalfOfTheMemoryOfAHashSet() {
+        final long hashSetSize = retainedHeap(HashSet::new);
+        final long compactIdSetSize = retainedHeap(CompactIdSet::new);
+
+        assertTrue(compactIdSetSize * 2 < hashSetSize, String.format("CompactIdSet: %d bytes, HashSet: %d bytes", compactIdSetSize, hashSetSize));
+    }
+
+    /**
+     * @return the heap retained by a set filled with plain and prefixed UUIDs - as the ids of the files, the largest
+     * set handled during indexing.
+     */
+    private static long retainedHeap(Supplier<Set<String>> factory) {
+        final Random random = new Random(42);
+        final long before = usedHeap();
+        final Set<String> set = factory.get();
+        for (int i = 0; i < 100000; i++) {
+            final String uuid = new UUID(random.nextLong(), random.nextLong()).toString();
+            set.add(uuid);
+            set.add("https://kg.ebrains.eu/api/instances/" + uuid);
+        }
+        final long after = usedHeap();
+        assertEquals(200000, set.size());
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 - 2021 Swiss Federal Institute of Technology Lausanne (EPFL)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This open source software code was developed in part or in whole in the
+ * Human Brain Project, funded from the European Union's Horizon 2020
+ * Framework Programme for Research and Innovation under
+ * Specific Grant Agreements No. 720270, No. 785907, and No. 945539
+ * (Human Brain Project SGA1, SGA2 and SGA3).
+ *
+ */
+
+package eu.ebrains.kg.search.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedIdSetTest {
+
+    @Test
+    void iteratesInOrderWithoutDuplicates() {
+        try (SortedIdSet set = SortedIdSet.of(List.of("c", "a", "b", "a", "c"))) {
+            assertEquals(List.of("a", "b", "c"), toList(set));
+        }
+    }
+
+    @Test
+    void mergesTheSpilledFiles() {
+        final Random random = new Random(42);
+        final TreeSet<String> expected = new TreeSet<>(SortedIdSet.ORDER);
+        try (SortedIdSet set = new SortedIdSet(7)) {
+            for (int i = 0; i < 1000; i++) {
+                final String id = Integer.toHexString(random.nextInt(500));
+                expected.add(id);
+                set.add(id);
+            }
+            assertEquals(new ArrayList<>(expected), toList(set));
+        }
+    }
+
+    @Test
+    void ordersByCodePoint() {
+        //Surrogate pairs are sorted after the characters of the upper BMP - as elasticsearch does with the UTF-8 bytes
+        final String supplementary = new String(Character.toChars(0x1F600));
+        try (SortedIdSet set = SortedIdSet.of(List.of(supplementary, "\uFF21", "ab", "a"))) {
+            assertEquals(List.of("a", "ab", "\uFF21", supplementary), toList(set));
+        }
+    }
+
+    private static List<String> toList(SortedIdSet set) {
+        final List<String> result = new ArrayList<>();
+        set.forEach(result::add);
+        return result;
+    }
+}